@@ -1,9 +1,7 @@
 package com.flawiddsouza.writer;
 
-import java.util.Date;
-
 public class Category {
     public String name;
-    public Date createdAt;
-    public Date updatedAt;
+    public long createdAt; // epoch millis
+    public long updatedAt;
 }
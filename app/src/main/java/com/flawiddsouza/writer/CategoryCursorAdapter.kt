@@ -8,7 +8,7 @@ import android.view.ViewGroup
 import android.widget.CursorAdapter
 import android.widget.TextView
 
-class CategoryCursorAdapter(context: Context, cursor: Cursor) : CursorAdapter(context, cursor, 0) {
+class CategoryCursorAdapter(context: Context, cursor: Cursor?) : CursorAdapter(context, cursor, 0) {
 
     override fun newView(context: Context, cursor: Cursor, parent: ViewGroup): View {
         return LayoutInflater.from(context).inflate(R.layout.list_item_1, parent, false)
@@ -1,73 +1,92 @@
-package com.flawiddsouza.writer;
-
-import android.graphics.Canvas;
-import android.graphics.ColorFilter;
-import android.graphics.Paint;
-import android.graphics.PixelFormat;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffColorFilter;
-import android.graphics.drawable.Drawable;
-
-public class ChromaticAberrationDrawable extends Drawable {
-    private Paint redPaint;
-    private Paint cyanPaint;
-    private int intensity;
-    private float stripWidth;
-
-    public ChromaticAberrationDrawable(int intensity) {
-        this.intensity = intensity;
-        // Intensity 0-100 controls the effect strength
-        // Calculate strip width based on intensity (wider strips = more visible effect)
-        stripWidth = 20 + (intensity / 2f); // 20-70 pixel strips
-
-        // Calculate alpha based on intensity (0-100 -> 10-80 alpha)
-        int alpha = 10 + (int)(intensity * 0.7f);
-
-        // Red channel paint
-        redPaint = new Paint();
-        redPaint.setColor(0xFF0000); // Red
-        redPaint.setAlpha(alpha);
-        redPaint.setStyle(Paint.Style.FILL);
-
-        // Cyan channel paint (opposite of red for chromatic aberration)
-        cyanPaint = new Paint();
-        cyanPaint.setColor(0x00FFFF); // Cyan
-        cyanPaint.setAlpha(alpha);
-        cyanPaint.setStyle(Paint.Style.FILL);
-    }
-
-    @Override
-    public void draw(Canvas canvas) {
-        int height = getBounds().height();
-        int width = getBounds().width();
-
-        // Draw alternating vertical strips of red and cyan
-        // The offset creates the chromatic aberration effect
-        float offset = 1 + (intensity / 25f); // 1-5 pixels offset
-
-        for (float x = 0; x < width; x += stripWidth * 2) {
-            // Red strip (shifted slightly)
-            canvas.drawRect(x - offset, 0, x + stripWidth - offset, height, redPaint);
-
-            // Cyan strip (shifted opposite direction)
-            canvas.drawRect(x + stripWidth + offset, 0, x + stripWidth * 2 + offset, height, cyanPaint);
-        }
-    }
-
-    @Override
-    public void setAlpha(int alpha) {
-        redPaint.setAlpha(alpha);
-        cyanPaint.setAlpha(alpha);
-    }
-
-    @Override
-    public void setColorFilter(ColorFilter colorFilter) {
-        redPaint.setColorFilter(colorFilter);
-        cyanPaint.setColorFilter(colorFilter);
-    }
-
-    @Override
-    public int getOpacity() {
-        return PixelFormat.TRANSLUCENT;
-    }
-}
+package com.flawiddsouza.writer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+// One period of the red and cyan strips is rendered into a tile one pixel high, which is
+// repeated over the bounds, so drawing is a single rect whatever the size. Tiles are cached
+// per intensity and shared by every instance, the list rows, the editor and the settings preview.
+public class ChromaticAberrationDrawable extends Drawable {
+    private static final SparseArray<BitmapShader> tiles = new SparseArray<>();
+
+    private Paint paint;
+
+    public ChromaticAberrationDrawable(int intensity) {
+        paint = new Paint();
+        paint.setShader(getTile(intensity));
+    }
+
+    private static synchronized BitmapShader getTile(int intensity) {
+        BitmapShader tile = tiles.get(intensity);
+        if (tile == null) {
+            tile = new BitmapShader(renderTile(intensity), Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+            tiles.put(intensity, tile);
+        }
+        return tile;
+    }
+
+    private static Bitmap renderTile(int intensity) {
+        // Intensity 0-100 controls the effect strength
+        // Calculate strip width based on intensity (wider strips = more visible effect)
+        float stripWidth = 20 + (intensity / 2f); // 20-70 pixel strips
+        int period = Math.round(stripWidth * 2); // a red and a cyan strip
+
+        // Calculate alpha based on intensity (0-100 -> 10-80 alpha)
+        int alpha = 10 + (int)(intensity * 0.7f);
+
+        // Red channel paint
+        Paint redPaint = new Paint();
+        redPaint.setColor(0xFF0000); // Red
+        redPaint.setAlpha(alpha);
+        redPaint.setStyle(Paint.Style.FILL);
+
+        // Cyan channel paint (opposite of red for chromatic aberration)
+        Paint cyanPaint = new Paint();
+        cyanPaint.setColor(0x00FFFF); // Cyan
+        cyanPaint.setAlpha(alpha);
+        cyanPaint.setStyle(Paint.Style.FILL);
+
+        // The offset creates the chromatic aberration effect
+        float offset = 1 + (intensity / 25f); // 1-5 pixels offset
+
+        // Strips are shifted past the period's edges, so the neighbouring periods are drawn too
+        // and whatever spills into this one is kept, in the same order as across the full width
+        Bitmap bitmap = Bitmap.createBitmap(period, 1, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (float x = -period; x <= period; x += period) {
+            // Red strip (shifted slightly)
+            canvas.drawRect(x - offset, 0, x + stripWidth - offset, 1, redPaint);
+
+            // Cyan strip (shifted opposite direction)
+            canvas.drawRect(x + stripWidth + offset, 0, x + stripWidth * 2 + offset, 1, cyanPaint);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        canvas.drawRect(getBounds(), paint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha); // scales the strips' own opacity
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
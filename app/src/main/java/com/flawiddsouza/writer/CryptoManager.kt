@@ -1,195 +1,415 @@
-package com.flawiddsouza.writer
-
-import android.util.Base64
-import java.security.SecureRandom
-import java.security.spec.KeySpec
-import javax.crypto.Cipher
-import javax.crypto.SecretKey
-import javax.crypto.SecretKeyFactory
-import javax.crypto.spec.IvParameterSpec
-import javax.crypto.spec.PBEKeySpec
-import javax.crypto.spec.SecretKeySpec
-
-object CryptoManager {
-    private const val ALGORITHM = "ChaCha20-Poly1305"
-    private const val KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256"
-    private const val ITERATIONS = 310_000  // OWASP 2021 recommendation - balanced for mobile
-    private const val KEY_LENGTH = 256
-    private const val SALT_LENGTH = 32
-    private const val NONCE_LENGTH = 12
-
-    // Session password management - per note
-    // Maps note ID to its password for this session
-    private val sessionPasswords = mutableMapOf<Long, CharArray>()
-
-    // Key cache: maps Base64-encoded salt to derived key
-    // This avoids re-running expensive PBKDF2 for the same salt
-    private val keyCache = mutableMapOf<String, SecretKey>()
-
-    /**
-     * Encrypts plaintext using ChaCha20-Poly1305
-     * @param plaintext The text to encrypt
-     * @param password The password to use for encryption
-     * @param existingSalt Optional salt from previous encryption (for re-encrypting same note)
-     * @return Base64-encoded string in format: [SALT]:[NONCE]:[CIPHERTEXT]
-     * @throws Exception if encryption fails
-     */
-    @JvmOverloads
-    fun encrypt(plaintext: String, password: CharArray, existingSalt: ByteArray? = null): String {
-        // Use existing salt if provided, otherwise generate new one
-        val salt = existingSalt ?: ByteArray(SALT_LENGTH).apply {
-            SecureRandom().nextBytes(this)
-        }
-
-        // Derive key from password using PBKDF2 (will use cache if available)
-        val key = deriveKey(password, salt)
-
-        // Generate nonce (IV) for ChaCha20
-        val nonce = ByteArray(NONCE_LENGTH)
-        SecureRandom().nextBytes(nonce)
-
-        // Encrypt
-        val cipher = Cipher.getInstance(ALGORITHM)
-        cipher.init(Cipher.ENCRYPT_MODE, key, IvParameterSpec(nonce))
-        val ciphertext = cipher.doFinal(plaintext.toByteArray(Charsets.UTF_8))
-
-        // Encode everything to Base64 and return in format: SALT:NONCE:CIPHERTEXT
-        val saltB64 = Base64.encodeToString(salt, Base64.NO_WRAP)
-        val nonceB64 = Base64.encodeToString(nonce, Base64.NO_WRAP)
-        val ciphertextB64 = Base64.encodeToString(ciphertext, Base64.NO_WRAP)
-
-        return "$saltB64:$nonceB64:$ciphertextB64"
-    }
-
-    /**
-     * Decrypts encrypted data using ChaCha20-Poly1305
-     * @param encryptedData Base64-encoded string in format: [SALT]:[NONCE]:[CIPHERTEXT]
-     * @param password The password to use for decryption
-     * @return Decrypted plaintext
-     * @throws Exception if decryption fails (wrong password, corrupted data, etc.)
-     */
-    fun decrypt(encryptedData: String, password: CharArray): String {
-        // Parse the encrypted data format: SALT:NONCE:CIPHERTEXT
-        val parts = encryptedData.split(":")
-        if (parts.size != 3) {
-            throw IllegalArgumentException("Invalid encrypted data format")
-        }
-
-        val salt = Base64.decode(parts[0], Base64.NO_WRAP)
-        val nonce = Base64.decode(parts[1], Base64.NO_WRAP)
-        val ciphertext = Base64.decode(parts[2], Base64.NO_WRAP)
-
-        // Derive key from password using same salt
-        val key = deriveKey(password, salt)
-
-        // Decrypt
-        try {
-            val cipher = Cipher.getInstance(ALGORITHM)
-            cipher.init(Cipher.DECRYPT_MODE, key, IvParameterSpec(nonce))
-            val plaintext = cipher.doFinal(ciphertext)
-            return String(plaintext, Charsets.UTF_8)
-        } catch (e: Exception) {
-            // Decryption failed (wrong password) - clear cached key for this salt
-            // so next attempt with different password will derive fresh key
-            val saltKey = Base64.encodeToString(salt, Base64.NO_WRAP)
-            keyCache.remove(saltKey)
-            throw e
-        }
-    }
-
-    /**
-     * Derives a secret key from password using PBKDF2
-     * Uses cache to avoid re-deriving for the same salt
-     */
-    private fun deriveKey(password: CharArray, salt: ByteArray): SecretKey {
-        // Check cache first
-        val saltKey = Base64.encodeToString(salt, Base64.NO_WRAP)
-        keyCache[saltKey]?.let { return it }
-
-        // Not in cache, derive the key
-        val factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM)
-        val spec: KeySpec = PBEKeySpec(password, salt, ITERATIONS, KEY_LENGTH)
-        val tmp = factory.generateSecret(spec)
-        val derivedKey = SecretKeySpec(tmp.encoded, "ChaCha20")
-
-        // Store in cache for future use
-        keyCache[saltKey] = derivedKey
-
-        return derivedKey
-    }
-
-    /**
-     * Extracts the salt from encrypted data
-     * @param encryptedData Base64-encoded string in format: [SALT]:[NONCE]:[CIPHERTEXT]
-     * @return The salt as ByteArray, or null if format is invalid
-     */
-    fun extractSalt(encryptedData: String): ByteArray? {
-        return try {
-            val parts = encryptedData.split(":")
-            if (parts.size != 3) return null
-            Base64.decode(parts[0], Base64.NO_WRAP)
-        } catch (e: Exception) {
-            null
-        }
-    }
-
-    /**
-     * Securely clears a CharArray by overwriting with zeros
-     */
-    fun clearPassword(password: CharArray) {
-        password.fill('\u0000')
-    }
-
-    // Session Management Functions
-
-    /**
-     * Gets the session password for a specific note
-     * @param noteId The note ID
-     * @return The password as CharArray, or null if not set
-     */
-    fun getSessionPassword(noteId: Long): CharArray? {
-        return sessionPasswords[noteId]
-    }
-
-    /**
-     * Sets the session password for a specific note
-     * @param noteId The note ID
-     * @param password The password to store in memory
-     */
-    fun setSessionPassword(noteId: Long, password: CharArray) {
-        // Clear old password for this note if exists
-        sessionPasswords[noteId]?.let { clearPassword(it) }
-        // Store new password (make a copy to avoid external modifications)
-        sessionPasswords[noteId] = password.copyOf()
-    }
-
-    /**
-     * Checks if a session password is set for a specific note
-     * @param noteId The note ID
-     * @return true if password is set, false otherwise
-     */
-    fun hasSessionPassword(noteId: Long): Boolean {
-        return sessionPasswords.containsKey(noteId)
-    }
-
-    /**
-     * Clears the session password for a specific note
-     * @param noteId The note ID
-     */
-    fun clearSessionPassword(noteId: Long) {
-        sessionPasswords[noteId]?.let {
-            clearPassword(it)
-            sessionPasswords.remove(noteId)
-        }
-    }
-
-    /**
-     * Clears all session passwords and key cache
-     * Call this when app closes or user logs out
-     */
-    fun clearAllSessions() {
-        sessionPasswords.values.forEach { clearPassword(it) }
-        sessionPasswords.clear()
-        keyCache.clear()
-    }
-}
+package com.flawiddsouza.writer
+
+import android.os.CancellationSignal
+import android.util.Base64
+import java.security.SecureRandom
+import java.security.spec.KeySpec
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.SecretKey
+import javax.crypto.SecretKeyFactory
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.PBEKeySpec
+import javax.crypto.spec.SecretKeySpec
+
+object CryptoManager {
+    private const val ALGORITHM = "ChaCha20-Poly1305"
+    private const val KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256"
+    private const val ITERATIONS = 310_000  // OWASP 2021 recommendation - balanced for mobile
+    private const val KEY_LENGTH = 256
+    private const val SALT_LENGTH = 32
+    private const val NONCE_LENGTH = 12
+    private const val TAG_LENGTH = 16
+
+    // Encrypted data is stored as a binary envelope starting with one of these version bytes:
+    // ENVELOPE_PASSWORD is [1][SALT][NONCE][CIPHERTEXT], encrypted with a key derived from a password and SALT
+    // ENVELOPE_KEY is [2][NONCE][CIPHERTEXT], encrypted with a key that is already derived (vault notes, wrapped keys)
+    // Data saved before the envelopes is Base64 text, which fromLegacyText converts without decrypting it.
+    private const val ENVELOPE_PASSWORD: Byte = 1
+    private const val ENVELOPE_KEY: Byte = 2
+    private const val PASSWORD_HEADER_LENGTH = 1 + SALT_LENGTH + NONCE_LENGTH
+    private const val KEY_HEADER_LENGTH = 1 + NONCE_LENGTH
+    // What the vault's check value decrypts to with the right password
+    private const val VAULT_CHECK = "Writer vault"
+    // The vault password's PBKDF2 key is never used as it is. The check value and the wrapping of data keys
+    // each get a key of their own expanded from it with these labels, so no key serves both purposes.
+    private const val VAULT_CHECK_INFO = "Writer vault check"
+    private const val VAULT_WRAP_INFO = "Writer vault wrap"
+
+    // Session password management - per note
+    // Maps note ID to its password for this session
+    private val sessionPasswords = ConcurrentHashMap<Long, CharArray>()
+
+    // Key cache: maps salt (one char per byte) to derived key
+    // This avoids re-running expensive PBKDF2 for the same salt
+    // Each key is kept with the password it was derived from and only reused for that same password,
+    // otherwise a wrong password would "work" for any salt whose key is cached
+    private val keyCache = ConcurrentHashMap<String, CachedKey>()
+
+    private class CachedKey(val password: CharArray, val key: SecretKey)
+
+    // Vault mode: one master key, expanded from the vault password's key and unlocked once per session,
+    // wraps a random data key per note. Opening a vault note then only costs unwrapping its key, not a key derivation.
+    @Volatile
+    private var vaultKey: SecretKey? = null
+
+    // Deriving a key takes up to a second, so unlocking and encrypting run here instead of on the main
+    // thread or the database's write thread. One thread, so work runs in the order it was submitted.
+    val executor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    /**
+     * Encrypts plaintext using ChaCha20-Poly1305
+     * @param plaintext The text to encrypt
+     * @param password The password to use for encryption
+     * @param existingSalt Optional salt from previous encryption (for re-encrypting same note)
+     * @return Envelope in format: [1][SALT][NONCE][CIPHERTEXT]
+     * @throws Exception if encryption fails
+     */
+    @JvmOverloads
+    fun encrypt(plaintext: String, password: CharArray, existingSalt: ByteArray? = null): ByteArray {
+        // Use existing salt if provided, otherwise generate new one
+        val salt = existingSalt ?: newSalt()
+
+        // Derive key from password using PBKDF2 (will use cache if available)
+        val key = deriveKey(password, salt)
+
+        return sealWithPassword(plaintext.toByteArray(Charsets.UTF_8), salt, key)
+    }
+
+    // [1][SALT][NONCE][CIPHERTEXT], key being derived from the password and salt
+    private fun sealWithPassword(plaintext: ByteArray, salt: ByteArray, key: SecretKey): ByteArray {
+        val envelope = ByteArray(PASSWORD_HEADER_LENGTH + plaintext.size + TAG_LENGTH)
+        envelope[0] = ENVELOPE_PASSWORD
+        salt.copyInto(envelope, 1)
+        sealInto(envelope, 1 + SALT_LENGTH, plaintext, key)
+        return envelope
+    }
+
+    /**
+     * Decrypts encrypted data using ChaCha20-Poly1305
+     * @param envelope Envelope in format: [1][SALT][NONCE][CIPHERTEXT], as returned by encrypt
+     * @param password The password to use for decryption
+     * @return Decrypted plaintext
+     * @throws Exception if decryption fails (wrong password, corrupted data, etc.)
+     */
+    fun decrypt(envelope: ByteArray, password: CharArray): String {
+        if (envelope.size < PASSWORD_HEADER_LENGTH + TAG_LENGTH || envelope[0] != ENVELOPE_PASSWORD) {
+            throw IllegalArgumentException("Invalid encrypted data format")
+        }
+        val salt = envelope.copyOfRange(1, 1 + SALT_LENGTH)
+
+        // Derive key from password using same salt
+        val key = deriveKey(password, salt)
+
+        // Decrypt
+        try {
+            return String(openAt(envelope, 1 + SALT_LENGTH, key), Charsets.UTF_8)
+        } catch (e: Exception) {
+            // Decryption failed (wrong password) - clear cached key for this salt
+            // so next attempt with different password will derive fresh key
+            forgetKey(salt)
+            throw e
+        }
+    }
+
+    /**
+     * Derives a secret key from password using PBKDF2
+     * Uses cache to avoid re-deriving for the same salt and password
+     */
+    private fun deriveKey(password: CharArray, salt: ByteArray): SecretKey {
+        // Check cache first
+        val saltKey = cacheKey(salt)
+        keyCache[saltKey]?.let { if (samePassword(it.password, password)) return it.key }
+
+        // Not in cache, derive the key
+        val factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM)
+        val spec: KeySpec = PBEKeySpec(password, salt, ITERATIONS, KEY_LENGTH)
+        val tmp = factory.generateSecret(spec)
+        val derivedKey = SecretKeySpec(tmp.encoded, "ChaCha20")
+
+        // Store in cache for future use
+        keyCache.put(saltKey, CachedKey(password.copyOf(), derivedKey))?.let { clearPassword(it.password) }
+
+        return derivedKey
+    }
+
+    // Compares every char whatever the first difference, so the time taken doesn't tell how much matched
+    private fun samePassword(a: CharArray, b: CharArray): Boolean {
+        if (a.size != b.size) return false
+        var difference = 0
+        for (i in a.indices) {
+            difference = difference or (a[i].code xor b[i].code)
+        }
+        return difference == 0
+    }
+
+    private fun cacheKey(salt: ByteArray): String {
+        return String(salt, Charsets.ISO_8859_1)
+    }
+
+    /**
+     * Generates a salt for encrypting with a new password
+     */
+    fun newSalt(): ByteArray {
+        return ByteArray(SALT_LENGTH).apply {
+            SecureRandom().nextBytes(this)
+        }
+    }
+
+    /**
+     * Derives and caches the key for a salt ahead of time, so encrypting or decrypting with it is fast
+     * Call this on the executor
+     * @param password The password to derive the key from
+     * @param salt The salt, as returned by newSalt or extractSalt
+     */
+    fun prepareKey(password: CharArray, salt: ByteArray) {
+        deriveKey(password, salt)
+    }
+
+    /**
+     * Drops the cached key for a salt, for work that was cancelled after deriving it
+     */
+    fun forgetKey(salt: ByteArray) {
+        keyCache.remove(cacheKey(salt))?.let { clearPassword(it.password) }
+    }
+
+    /**
+     * Extracts the salt from encrypted data
+     * @param envelope Envelope in format: [1][SALT][NONCE][CIPHERTEXT]
+     * @return The salt as ByteArray, or null if format is invalid
+     */
+    fun extractSalt(envelope: ByteArray?): ByteArray? {
+        if (envelope == null || envelope.size < PASSWORD_HEADER_LENGTH || envelope[0] != ENVELOPE_PASSWORD) return null
+        return envelope.copyOfRange(1, 1 + SALT_LENGTH)
+    }
+
+    /**
+     * Converts encrypted data saved as Base64 text before the binary envelopes, without decrypting it
+     * @param encryptedData [SALT]:[NONCE]:[CIPHERTEXT] as encrypted with a password
+     * @return The same data as an envelope, or null if format is invalid
+     */
+    fun fromLegacyText(encryptedData: String): ByteArray? {
+        return try {
+            val parts = encryptedData.split(":")
+            if (parts.size != 3) return null
+            val salt = Base64.decode(parts[0], Base64.NO_WRAP)
+            val nonce = Base64.decode(parts[1], Base64.NO_WRAP)
+            if (salt.size != SALT_LENGTH || nonce.size != NONCE_LENGTH) return null
+            byteArrayOf(ENVELOPE_PASSWORD) + salt + nonce + Base64.decode(parts[2], Base64.NO_WRAP)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    /**
+     * Securely clears a CharArray by overwriting with zeros
+     */
+    fun clearPassword(password: CharArray) {
+        password.fill('\u0000')
+    }
+
+    // Session Management Functions
+
+    /**
+     * Gets the session password for a specific note
+     * @param noteId The note ID
+     * @return The password as CharArray, or null if not set
+     */
+    fun getSessionPassword(noteId: Long): CharArray? {
+        return sessionPasswords[noteId]
+    }
+
+    /**
+     * Sets the session password for a specific note
+     * @param noteId The note ID
+     * @param password The password to store in memory
+     */
+    fun setSessionPassword(noteId: Long, password: CharArray) {
+        // Already stored, password is the array getSessionPassword returned
+        if (sessionPasswords[noteId] === password) return
+        // Clear old password for this note if exists
+        sessionPasswords[noteId]?.let { clearPassword(it) }
+        // Store new password (make a copy to avoid external modifications)
+        sessionPasswords[noteId] = password.copyOf()
+    }
+
+    /**
+     * Checks if a session password is set for a specific note
+     * @param noteId The note ID
+     * @return true if password is set, false otherwise
+     */
+    fun hasSessionPassword(noteId: Long): Boolean {
+        return sessionPasswords.containsKey(noteId)
+    }
+
+    /**
+     * Clears the session password for a specific note, and drops its text from the search index
+     * @param noteId The note ID
+     */
+    fun clearSessionPassword(noteId: Long) {
+        sessionPasswords[noteId]?.let {
+            clearPassword(it)
+            sessionPasswords.remove(noteId)
+        }
+        UnlockedNotesIndex.remove(noteId)
+    }
+
+    /**
+     * Clears all session passwords, key cache, the vault key and the search index of unlocked notes
+     * Call this when app closes or user logs out
+     */
+    fun clearAllSessions() {
+        sessionPasswords.values.forEach { clearPassword(it) }
+        sessionPasswords.clear()
+        keyCache.values.forEach { clearPassword(it.password) }
+        keyCache.clear()
+        vaultKey = null
+        UnlockedNotesIndex.clear()
+    }
+
+    // Vault Functions
+
+    /**
+     * Creates a vault for a password and unlocks it. Slow, call this on the executor
+     * @param password The vault password
+     * @return The vault's check value, stored to unlock the vault later
+     */
+    fun createVault(password: CharArray): ByteArray {
+        val salt = newSalt()
+        val passwordKey = deriveKey(password, salt)
+        val check = sealWithPassword(VAULT_CHECK.toByteArray(Charsets.UTF_8), salt, expandKey(passwordKey, VAULT_CHECK_INFO))
+        vaultKey = expandKey(passwordKey, VAULT_WRAP_INFO)
+        return check
+    }
+
+    /**
+     * Unlocks the vault for this session. Slow the first time, call this on the executor
+     * @param password The vault password
+     * @param check The vault's check value, as returned by createVault
+     * @param cancellationSignal Cancelled while the key was being derived, the vault stays locked and the key isn't kept
+     * @return true if the password was right and the vault is now unlocked
+     */
+    @JvmOverloads
+    fun unlockVault(password: CharArray, check: ByteArray, cancellationSignal: CancellationSignal? = null): Boolean {
+        if (cancellationSignal?.isCanceled == true) return false
+        val salt = extractSalt(check) ?: return false
+        val passwordKey = deriveKey(password, salt)
+        val opened = try {
+            String(openAt(check, 1 + SALT_LENGTH, expandKey(passwordKey, VAULT_CHECK_INFO)), Charsets.UTF_8)
+        } catch (e: Exception) {
+            null // wrong password
+        }
+        if (opened != VAULT_CHECK || cancellationSignal?.isCanceled == true) {
+            forgetKey(salt)
+            return false
+        }
+        vaultKey = expandKey(passwordKey, VAULT_WRAP_INFO)
+        return true
+    }
+
+    fun isVaultUnlocked(): Boolean {
+        return vaultKey != null
+    }
+
+    /**
+     * Forgets the vault key, for when vault mode is turned off
+     */
+    fun lockVault() {
+        vaultKey = null
+    }
+
+    /**
+     * Generates a data key for a new vault note
+     * @return The data key wrapped with the vault key, stored next to the note
+     * @throws IllegalStateException if the vault is locked
+     */
+    fun newWrappedKey(): ByteArray {
+        val dataKey = ByteArray(KEY_LENGTH / 8)
+        SecureRandom().nextBytes(dataKey)
+        try {
+            return sealWithKey(dataKey, requireVaultKey())
+        } finally {
+            dataKey.fill(0)
+        }
+    }
+
+    /**
+     * Encrypts a vault note's text with its data key
+     * @return Envelope in format: [2][NONCE][CIPHERTEXT]
+     * @throws IllegalStateException if the vault is locked
+     */
+    fun encryptWithVault(plaintext: String, wrappedKey: ByteArray): ByteArray {
+        return sealWithKey(plaintext.toByteArray(Charsets.UTF_8), unwrapKey(wrappedKey))
+    }
+
+    /**
+     * Decrypts a vault note's text with its data key
+     * @throws Exception if the vault is locked or the data is corrupted
+     */
+    fun decryptWithVault(envelope: ByteArray, wrappedKey: ByteArray): String {
+        return String(openWithKey(envelope, unwrapKey(wrappedKey)), Charsets.UTF_8)
+    }
+
+    private fun unwrapKey(wrappedKey: ByteArray): SecretKey {
+        val dataKey = openWithKey(wrappedKey, requireVaultKey())
+        try {
+            return SecretKeySpec(dataKey, "ChaCha20") // keeps its own copy
+        } finally {
+            dataKey.fill(0)
+        }
+    }
+
+    // HKDF-Expand (RFC 5869) for a single 256-bit block, key already being uniformly random as PBKDF2 output is
+    private fun expandKey(key: SecretKey, info: String): SecretKey {
+        val mac = Mac.getInstance("HmacSHA256")
+        mac.init(SecretKeySpec(key.encoded, "HmacSHA256"))
+        mac.update(info.toByteArray(Charsets.UTF_8))
+        mac.update(1.toByte())
+        val expanded = mac.doFinal()
+        try {
+            return SecretKeySpec(expanded, "ChaCha20") // keeps its own copy
+        } finally {
+            expanded.fill(0)
+        }
+    }
+
+    private fun requireVaultKey(): SecretKey {
+        return vaultKey ?: throw IllegalStateException("Vault is locked")
+    }
+
+    // ChaCha20-Poly1305 with a key that is already derived, as [2][NONCE][CIPHERTEXT]
+    private fun sealWithKey(plaintext: ByteArray, key: SecretKey): ByteArray {
+        val envelope = ByteArray(KEY_HEADER_LENGTH + plaintext.size + TAG_LENGTH)
+        envelope[0] = ENVELOPE_KEY
+        sealInto(envelope, 1, plaintext, key)
+        return envelope
+    }
+
+    private fun openWithKey(envelope: ByteArray, key: SecretKey): ByteArray {
+        if (envelope.size < KEY_HEADER_LENGTH + TAG_LENGTH || envelope[0] != ENVELOPE_KEY) {
+            throw IllegalArgumentException("Invalid encrypted data format")
+        }
+        return openAt(envelope, 1, key)
+    }
+
+    // Writes a new nonce at offset and the ciphertext right after it, straight into the envelope
+    private fun sealInto(envelope: ByteArray, offset: Int, plaintext: ByteArray, key: SecretKey) {
+        val nonce = ByteArray(NONCE_LENGTH)
+        SecureRandom().nextBytes(nonce)
+        nonce.copyInto(envelope, offset)
+        val cipher = Cipher.getInstance(ALGORITHM)
+        cipher.init(Cipher.ENCRYPT_MODE, key, IvParameterSpec(nonce))
+        cipher.doFinal(plaintext, 0, plaintext.size, envelope, offset + NONCE_LENGTH)
+    }
+
+    // Decrypts the nonce at offset and the ciphertext after it, up to the end of the envelope
+    private fun openAt(envelope: ByteArray, offset: Int, key: SecretKey): ByteArray {
+        val cipher = Cipher.getInstance(ALGORITHM)
+        cipher.init(Cipher.DECRYPT_MODE, key, IvParameterSpec(envelope, offset, NONCE_LENGTH))
+        val ciphertextOffset = offset + NONCE_LENGTH
+        return cipher.doFinal(envelope, ciphertextOffset, envelope.size - ciphertextOffset)
+    }
+}
@@ -0,0 +1,48 @@
+package com.flawiddsouza.writer;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ProgressBar;
+
+// Progress dialog for crypto work running on CryptoManager's executor. It only shows up if the work is
+// still running after SHOW_DELAY_MS, so work that finds its key cached doesn't flash it.
+// Cancelling the dialog cancels the signal, whoever waits on the work checks it before using the result.
+class CryptoProgress {
+
+    private static final long SHOW_DELAY_MS = 300;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Activity activity;
+    private final AlertDialog dialog;
+    private final Runnable show = this::show;
+
+    CryptoProgress(Activity activity, String message, CancellationSignal cancellationSignal) {
+        this.activity = activity;
+        ProgressBar progressBar = new ProgressBar(activity);
+        progressBar.setIndeterminate(true);
+        progressBar.setPadding(50, 20, 50, 20);
+        dialog = new AlertDialog.Builder(activity)
+                .setMessage(message)
+                .setView(progressBar)
+                .setNegativeButton(android.R.string.cancel, (d, which) -> cancellationSignal.cancel())
+                .setOnCancelListener(d -> cancellationSignal.cancel())
+                .create();
+        handler.postDelayed(show, SHOW_DELAY_MS);
+    }
+
+    private void show() {
+        if(!activity.isFinishing() && !activity.isDestroyed()) {
+            dialog.show();
+        }
+    }
+
+    void dismiss() {
+        handler.removeCallbacks(show);
+        if(dialog.isShowing() && !activity.isDestroyed()) {
+            dialog.dismiss();
+        }
+    }
+}
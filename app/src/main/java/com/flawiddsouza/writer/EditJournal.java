@@ -0,0 +1,452 @@
+package com.flawiddsouza.writer;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only journal of the edits made in one editor session, so text typed since the last save
+// survives the process being killed. Every save starts a new segment, and once the save is in the
+// database the segments before it are deleted. On the next launch recover() replays whatever is left
+// onto the saved note, which costs time in proportion to the unsaved edits rather than the note.
+// Records are buffered and synced to disk in batches on a background thread.
+// The journal holds plain text, so encrypted notes are never journaled.
+class EditJournal {
+
+    static final int FIELD_TITLE = 0;
+    static final int FIELD_BODY = 1;
+
+    private static final String TAG = "EditJournal";
+    private static final String DIRECTORY = "journals";
+    private static final String EXTENSION = ".journal";
+    // Edits are at most this old when the process dies
+    private static final long SYNC_DELAY_MS = 1000;
+
+    // Starts every segment: id (-1 for a note not added yet), category id, updated_ms the edits apply to (0 while unknown),
+    // and textHash of the text the save that started the segment wrote (NO_TEXT_HASH for the first segment)
+    private static final byte RECORD_HEADER = 1;
+    // field, start, removed length, inserted text, in chars as the TextWatcher reports them
+    private static final byte RECORD_EDIT = 2;
+    // Appended once the save that started the segment is in the database: id, updated_ms of that save
+    private static final byte RECORD_SAVED = 3;
+    private static final long NO_TEXT_HASH = -1;
+
+    // The journal thread of every editor in the app
+    private static final ScheduledExecutorService sharedExecutor = Executors.newSingleThreadScheduledExecutor();
+    // Sessions of editors open in this process, which recover() has to leave alone
+    private static final Set<String> liveSessions = Collections.synchronizedSet(new HashSet<>());
+
+    private final File directory;
+    private final ScheduledExecutorService executor;
+    private final String session = UUID.randomUUID().toString();
+    private final long categoryId;
+
+    // Main thread
+    private long id;
+    private int segment;
+    private int pendingSaves;
+    private boolean closing;
+    private boolean discarded;
+
+    // Journal thread
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private int outSegment; // the segment out writes to
+    private boolean syncScheduled;
+
+    // The notes recover() saves the replayed edits to, WriterDatabaseHandler in the app
+    interface Notes {
+        Entry getEntry(long id);
+        long addEntry(Entry entry);
+        void updateEntry(long id, Entry entry);
+    }
+
+    // Starts journaling edits made on top of the note as saved at baseUpdatedMs, id is -1 for a new note
+    EditJournal(Context context, long id, long categoryId, long baseUpdatedMs) {
+        this(new File(context.getNoBackupFilesDir(), DIRECTORY), sharedExecutor, id, categoryId, baseUpdatedMs);
+    }
+
+    // executor has to be single-threaded, records are written in the order they are queued
+    EditJournal(File directory, ScheduledExecutorService executor, long id, long categoryId, long baseUpdatedMs) {
+        this.directory = directory;
+        this.executor = executor;
+        this.id = id;
+        this.categoryId = categoryId;
+        liveSessions.add(session);
+        executor.execute(() -> openSegment(0, id, baseUpdatedMs, NO_TEXT_HASH));
+    }
+
+    void record(int field, int start, int removed, String inserted) {
+        executor.execute(() -> {
+            if(out == null) {
+                return;
+            }
+            try {
+                out.writeByte(RECORD_EDIT);
+                out.writeByte(field);
+                out.writeInt(start);
+                out.writeInt(removed);
+                writeText(out, inserted);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not journal edit", e);
+            }
+            if(!syncScheduled) {
+                syncScheduled = true;
+                executor.schedule(this::sync, SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    // Called when a save takes its copy of the text, edits after this go into the segment returned.
+    // The copy is hashed on the journal thread, so recover() can tell whether the save reached the database.
+    int startSegment(String savingTitle, String savingBody) {
+        segment++;
+        pendingSaves++;
+        int newSegment = segment;
+        long currentId = id;
+        executor.execute(() -> openSegment(newSegment, currentId, 0, textHash(savingTitle, savingBody)));
+        return newSegment;
+    }
+
+    // The save that started savedSegment is in the database, so the segments before it aren't needed anymore
+    void saved(int savedSegment, long savedId, long updatedMs) {
+        id = savedId;
+        pendingSaves--;
+        if(discarded) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                if(out != null && outSegment == savedSegment) {
+                    // still being written, the record has to go after what is buffered
+                    writeSaved(out, savedId, updatedMs);
+                    sync();
+                } else {
+                    try (DataOutputStream saved = new DataOutputStream(new FileOutputStream(segmentFile(savedSegment), true))) {
+                        writeSaved(saved, savedId, updatedMs);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not journal save", e);
+                return;
+            }
+            for(int i = 0; i < savedSegment; i++) {
+                segmentFile(i).delete();
+            }
+        });
+        if(closing && pendingSaves == 0) {
+            discard();
+        }
+    }
+
+    // A failed save keeps its segments, they are recovered on the next launch if nothing saves them first
+    void saveFailed() {
+        pendingSaves--;
+    }
+
+    void flush() {
+        executor.execute(this::sync);
+    }
+
+    // The editor is closing, the journal is deleted once the saves still running are in the database
+    void close() {
+        closing = true;
+        if(pendingSaves == 0) {
+            discard();
+        }
+    }
+
+    // Deletes the journal right away, for notes that became encrypted or were deleted
+    void discard() {
+        if(discarded) {
+            return;
+        }
+        discarded = true;
+        closing = true;
+        int lastSegment = segment;
+        executor.execute(() -> {
+            closeSegment();
+            for(int i = 0; i <= lastSegment; i++) {
+                segmentFile(i).delete();
+            }
+            liveSessions.remove(session);
+        });
+    }
+
+    private static void writeSaved(DataOutputStream out, long savedId, long updatedMs) throws IOException {
+        out.writeByte(RECORD_SAVED);
+        out.writeLong(savedId);
+        out.writeLong(updatedMs);
+        out.flush();
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, session + "_" + segment + EXTENSION);
+    }
+
+    private void openSegment(int newSegment, long segmentId, long baseUpdatedMs, long savingTextHash) {
+        closeSegment();
+        try {
+            directory.mkdirs();
+            fileOut = new FileOutputStream(segmentFile(newSegment), true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            outSegment = newSegment;
+            out.writeByte(RECORD_HEADER);
+            out.writeLong(segmentId);
+            out.writeLong(categoryId);
+            out.writeLong(baseUpdatedMs);
+            out.writeLong(savingTextHash);
+            out.flush(); // the header always comes first in the file, whatever is appended to it
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open journal segment", e);
+            out = null;
+        }
+    }
+
+    private void closeSegment() {
+        if(out == null) {
+            return;
+        }
+        sync();
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close journal segment", e);
+        }
+        out = null;
+        fileOut = null;
+    }
+
+    private void sync() {
+        syncScheduled = false;
+        if(out == null) {
+            return;
+        }
+        try {
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not sync journal", e);
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Never NO_TEXT_HASH
+    private static long textHash(String title, String body) {
+        return (31L * title.hashCode() + body.hashCode()) & 0xffffffffL;
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //-----------------------Recovery--------------------------
+
+    private static class Edit {
+        int field;
+        int start;
+        int removed;
+        String inserted;
+    }
+
+    private static class Segment {
+        long id = -1;
+        long categoryId;
+        long baseUpdatedMs; // 0 while the save it comes after wasn't known to be in the database
+        long savingTextHash = NO_TEXT_HASH; // of the text that save wrote
+        final List<Edit> edits = new ArrayList<>();
+    }
+
+    // Replays the journals of editors that didn't get to save, then deletes them.
+    // Runs on the repository's write thread, before or alongside editors journaling in this process.
+    static void recover(Context context, WriterDatabaseHandler handler) {
+        recover(new File(context.getNoBackupFilesDir(), DIRECTORY), handler);
+    }
+
+    static void recover(File directory, Notes notes) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        Map<String, TreeMap<Integer, File>> sessions = new HashMap<>();
+        for(File file : files) {
+            String name = file.getName();
+            int separator = name.lastIndexOf('_');
+            if(separator < 0 || !name.endsWith(EXTENSION)) {
+                continue;
+            }
+            String session = name.substring(0, separator);
+            if(liveSessions.contains(session)) {
+                continue;
+            }
+            try {
+                int segment = Integer.parseInt(name.substring(separator + 1, name.length() - EXTENSION.length()));
+                TreeMap<Integer, File> segments = sessions.get(session);
+                if(segments == null) {
+                    segments = new TreeMap<>();
+                    sessions.put(session, segments);
+                }
+                segments.put(segment, file);
+            } catch (NumberFormatException e) {
+                file.delete();
+            }
+        }
+        for(TreeMap<Integer, File> segmentFiles : sessions.values()) {
+            try {
+                List<Segment> segments = new ArrayList<>();
+                for(File file : segmentFiles.values()) {
+                    segments.add(readSegment(file));
+                }
+                recoverSession(notes, segments);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not recover journal", e);
+            } finally {
+                for(File file : segmentFiles.values()) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    // Reads up to the first incomplete record, which is where the process was killed.
+    // A SAVED record is what the segment's edits apply to, whatever header comes after it in a journal written before the header was flushed.
+    private static Segment readSegment(File file) throws IOException {
+        Segment segment = new Segment();
+        boolean saved = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while(true) {
+                byte type = in.readByte();
+                if(type == RECORD_HEADER) {
+                    long headerId = in.readLong();
+                    segment.categoryId = in.readLong();
+                    long headerUpdatedMs = in.readLong();
+                    segment.savingTextHash = in.readLong();
+                    if(!saved) {
+                        segment.id = headerId;
+                        segment.baseUpdatedMs = headerUpdatedMs;
+                    }
+                } else if(type == RECORD_EDIT) {
+                    Edit edit = new Edit();
+                    edit.field = in.readByte();
+                    edit.start = in.readInt();
+                    edit.removed = in.readInt();
+                    edit.inserted = readText(in);
+                    segment.edits.add(edit);
+                } else if(type == RECORD_SAVED) {
+                    segment.id = in.readLong();
+                    segment.baseUpdatedMs = in.readLong();
+                    saved = true;
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // the rest wasn't written
+        }
+        return segment;
+    }
+
+    private static void recoverSession(Notes notes, List<Segment> segments) {
+        long id = -1;
+        for(Segment segment : segments) {
+            if(segment.id != -1) {
+                id = segment.id;
+            }
+        }
+
+        Entry entry;
+        int first;
+        if(id == -1) {
+            // A new note that was never added
+            entry = new Entry();
+            entry.title = "";
+            entry.body = "";
+            entry.categoryId = segments.get(0).categoryId;
+            first = 0;
+        } else {
+            entry = notes.getEntry(id);
+            if(entry.title == null || entry.isEncrypted) {
+                return; // deleted or encrypted since
+            }
+            first = firstUnsavedSegment(segments, entry);
+            if(first < 0) {
+                Log.d(TAG, "Journal doesn't match the saved note, skipping it");
+                return;
+            }
+        }
+
+        StringBuilder title = new StringBuilder(entry.title);
+        StringBuilder body = new StringBuilder(entry.body);
+        int applied = 0;
+        replay:
+        for(int i = first; i < segments.size(); i++) {
+            for(Edit edit : segments.get(i).edits) {
+                StringBuilder text = edit.field == FIELD_TITLE ? title : body;
+                if(edit.start < 0 || edit.removed < 0 || edit.start + edit.removed > text.length()) {
+                    Log.d(TAG, "Journal edit out of range, stopping replay");
+                    break replay;
+                }
+                text.replace(edit.start, edit.start + edit.removed, edit.inserted);
+                applied++;
+            }
+        }
+        if(applied == 0) {
+            return;
+        }
+
+        entry.title = title.toString();
+        entry.body = body.toString();
+        if(id == -1) {
+            notes.addEntry(entry);
+        } else {
+            notes.updateEntry(id, entry);
+        }
+    }
+
+    // The segment whose edits come right after the saved note, or -1 if none fits it
+    private static int firstUnsavedSegment(List<Segment> segments, Entry saved) {
+        for(int i = segments.size() - 1; i >= 0; i--) {
+            if(segments.get(i).baseUpdatedMs == saved.updatedAt) {
+                return i;
+            }
+        }
+        // A save reached the database but the process died before it was journaled. Its segment only fits
+        // if the note still holds exactly the text that save wrote, anything saved since may already contain the edits.
+        long savedHash = textHash(saved.title, saved.body);
+        for(int i = segments.size() - 1; i > 0; i--) {
+            Segment segment = segments.get(i);
+            if(segment.baseUpdatedMs == 0 && segment.savingTextHash == savedHash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,343 +1,698 @@
-package com.flawiddsouza.writer;
-
-import android.content.SharedPreferences;
-import android.os.Bundle;
-import androidx.activity.OnBackPressedCallback;
-import androidx.appcompat.app.ActionBar;
-import androidx.appcompat.app.ActionBar.LayoutParams;
-import androidx.appcompat.app.AppCompatActivity;
-import androidx.preference.PreferenceManager;
-import android.view.View;
-import android.widget.EditText;
-import android.widget.ToggleButton;
-import android.widget.Toast;
-
-public class EditorActivity extends AppCompatActivity {
-
-    private EditText title;
-    private EditText editText;
-    private ToggleButton lockToggle;
-    private android.view.View scanlinesOverlay;
-    private android.view.View chromaticOverlay;
-    private boolean edit;
-    private long activeCategory;
-    private long id;
-    WriterDatabaseHandler handler;
-    Entry thisEntry;
-    private boolean isEncrypted;
-    private char[] encryptionPassword;
-    private String originalBodyText;
-    private boolean isProgrammaticToggleChange;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_editor);
-
-        ActionBar actionBar = getSupportActionBar();
-        View view = getLayoutInflater().inflate(R.layout.custom_action_bar, null);
-        actionBar.setDisplayShowTitleEnabled(false);
-        actionBar.setDisplayShowHomeEnabled(false);
-        actionBar.setDisplayShowCustomEnabled(true);
-        LayoutParams layoutParams = new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT); // Why? See: http://stackoverflow.com/a/23399652/4932305
-        actionBar.setCustomView(view, layoutParams);
-
-        title = (EditText) findViewById(R.id.actionBarTitle);
-        editText = (EditText) findViewById(R.id.editText);
-        lockToggle = (ToggleButton) findViewById(R.id.lockToggle);
-        scanlinesOverlay = findViewById(R.id.scanlines_overlay);
-        chromaticOverlay = findViewById(R.id.chromatic_overlay);
-        handler = WriterDatabaseHandler.getInstance(this);
-
-        Bundle bundle = getIntent().getExtras();
-        edit = bundle.getBoolean("edit");
-        activeCategory = bundle.getLong("activeCategory");
-
-        if(edit) {
-            id = bundle.getLong("id");
-            thisEntry = handler.getEntry(id);
-            title.setText(thisEntry.title);
-
-            // Handle encrypted notes
-            isEncrypted = thisEntry.isEncrypted;
-            if(isEncrypted) {
-                // Get password from session or bundle for THIS note
-                encryptionPassword = CryptoManager.INSTANCE.getSessionPassword(id);
-                if(encryptionPassword == null) {
-                    encryptionPassword = bundle.getCharArray("password");
-                }
-
-                // Get pre-decrypted body from MainActivity (no need to decrypt again)
-                String decryptedBody = bundle.getString("decryptedBody");
-                if(decryptedBody != null) {
-                    editText.setText(decryptedBody);
-                    originalBodyText = decryptedBody;
-                } else {
-                    // Fallback: shouldn't happen for encrypted notes
-                    Toast.makeText(this, "Failed to open encrypted note", Toast.LENGTH_SHORT).show();
-                    finish();
-                    return;
-                }
-                lockToggle.setChecked(true);
-            } else {
-                editText.setText(thisEntry.body);
-                originalBodyText = thisEntry.body; // Store original plaintext
-                lockToggle.setChecked(false);
-            }
-
-            editText.setSelection(editText.getText().length()); // Place cursor at the end of text
-        } else {
-            isEncrypted = false;
-            lockToggle.setChecked(false);
-            originalBodyText = ""; // Initialize for new notes
-        }
-
-        // Set up lock toggle click listener (for password change)
-        lockToggle.setOnClickListener(v -> {
-            if(lockToggle.isChecked() && isEncrypted) {
-                // Already locked and encrypted - change password (don't unlock)
-                new PasswordSetupDialog(EditorActivity.this, newPassword -> {
-                    // Clear old password and set new one
-                    if(encryptionPassword != null) {
-                        CryptoManager.INSTANCE.clearPassword(encryptionPassword);
-                    }
-                    encryptionPassword = newPassword;
-                    Toast.makeText(EditorActivity.this, "Password changed. Note will be re-encrypted on save", Toast.LENGTH_SHORT).show();
-                    return kotlin.Unit.INSTANCE;
-                }, () -> {
-                    // User cancelled - do nothing
-                    return kotlin.Unit.INSTANCE;
-                }, "Change Encryption Password", "Enter new password for this note").show();
-            }
-        });
-
-        // Set up lock toggle change listener (for setting password when unlocked)
-        lockToggle.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            // Ignore programmatic toggle changes
-            if(isProgrammaticToggleChange) {
-                return;
-            }
-
-            if(isChecked && !isEncrypted) {
-                // User toggled to locked on unencrypted note - set password
-                new PasswordSetupDialog(EditorActivity.this, password -> {
-                    encryptionPassword = password;
-                    isEncrypted = true;
-                    Toast.makeText(EditorActivity.this, "Note will be encrypted on save", Toast.LENGTH_SHORT).show();
-                    return kotlin.Unit.INSTANCE;
-                }, () -> {
-                    // User cancelled - uncheck the toggle
-                    isProgrammaticToggleChange = true;
-                    lockToggle.setChecked(false);
-                    isProgrammaticToggleChange = false;
-                    return kotlin.Unit.INSTANCE;
-                }).show();
-            } else if(!isChecked && isEncrypted) {
-                // User tried to unlock an encrypted note - block it and restore lock
-                isProgrammaticToggleChange = true;
-                lockToggle.setChecked(true);
-                isProgrammaticToggleChange = false;
-            }
-        });
-
-        // Set up long press to remove encryption (only works when encrypted)
-        lockToggle.setOnLongClickListener(v -> {
-            if(lockToggle.isChecked() && isEncrypted) {
-                // Show confirmation dialog to remove encryption
-                new android.app.AlertDialog.Builder(this)
-                    .setTitle("Remove Encryption?")
-                    .setMessage("Are you sure you want to remove encryption from this note? It will be saved as plain text.")
-                    .setPositiveButton("Remove Encryption", (dialog, which) -> {
-                        isEncrypted = false;
-                        if(encryptionPassword != null) {
-                            CryptoManager.INSTANCE.clearPassword(encryptionPassword);
-                        }
-                        encryptionPassword = null;
-                        isProgrammaticToggleChange = true;
-                        lockToggle.setChecked(false);
-                        isProgrammaticToggleChange = false;
-                        // Different message for new vs existing encrypted notes
-                        String toastMsg = (edit && thisEntry.isEncrypted)
-                            ? "Encryption will be removed on save"
-                            : "Encryption removed";
-                        Toast.makeText(this, toastMsg, Toast.LENGTH_SHORT).show();
-                    })
-                    .setNegativeButton("Cancel", null)
-                    .show();
-                return true; // Consume the long click event
-            }
-            return false; // Don't consume if not encrypted
-        });
-
-
-        // Privacy Mode
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        if(preferences.getBoolean("Privacy_Mode_Boolean", false)) {
-            boolean opacityEnabled = preferences.getBoolean("Privacy_Mode_Opacity_Enabled", false);
-            boolean shadowEnabled = preferences.getBoolean("Privacy_Mode_Shadow_Enabled", false);
-            boolean scanlinesEnabled = preferences.getBoolean("Privacy_Mode_Scanlines_Enabled", false);
-            boolean chromaticEnabled = preferences.getBoolean("Privacy_Mode_Chromatic_Enabled", false);
-            int opacityIntensity = preferences.getInt("Privacy_Mode_Opacity_Value", 128);
-            int shadowIntensity = preferences.getInt("Privacy_Mode_Shadow_Value", 128);
-            int scanlinesIntensity = preferences.getInt("Privacy_Mode_Scanlines_Value", 50);
-            int chromaticIntensity = preferences.getInt("Privacy_Mode_Chromatic_Value", 30);
-
-            // Reset shadow first
-            title.setShadowLayer(0, 0, 0, android.graphics.Color.TRANSPARENT);
-            editText.setShadowLayer(0, 0, 0, android.graphics.Color.TRANSPARENT);
-
-            // Calculate text and shadow alpha
-            int textAlpha = 255;
-            int shadowAlpha = 0;
-
-            if (opacityEnabled && !shadowEnabled) {
-                // Only opacity: reduce text transparency
-                textAlpha = 255 - opacityIntensity;
-            } else if (shadowEnabled && !opacityEnabled) {
-                // Only shadow: transparent text with shadow
-                textAlpha = 0;
-                shadowAlpha = 60 + (int)(shadowIntensity / 2.8f); // 60-150 range
-            } else if (opacityEnabled && shadowEnabled) {
-                // Both: text is transparent, opacity controls shadow transparency
-                textAlpha = 0;
-                int baseShadowAlpha = 60 + (int)(shadowIntensity / 2.8f);
-                shadowAlpha = (int)(baseShadowAlpha * (255 - opacityIntensity) / 255.0f);
-            }
-
-            // Apply shadow if enabled
-            if (shadowEnabled && shadowAlpha > 0) {
-                float shadowRadius = 2 + (shadowIntensity / 40f); // 2-8 range (more blur)
-                float shadowOffset = 0.5f + (shadowIntensity / 200f); // 0.5-1.8 range (less offset)
-
-                title.setShadowLayer(
-                    shadowRadius,
-                    shadowOffset,
-                    shadowOffset,
-                    android.graphics.Color.argb(shadowAlpha, 0, 0, 0)
-                );
-                editText.setShadowLayer(
-                    shadowRadius,
-                    shadowOffset,
-                    shadowOffset,
-                    android.graphics.Color.argb(shadowAlpha, 0, 0, 0)
-                );
-            }
-
-            // Apply final text color
-            title.setTextColor(android.graphics.Color.argb(textAlpha, 0, 0, 0));
-            editText.setTextColor(android.graphics.Color.argb(textAlpha, 0, 0, 0));
-
-            // Apply scanlines if enabled
-            if (scanlinesEnabled) {
-                ScanlinesDrawable scanlinesDrawable = new ScanlinesDrawable(scanlinesIntensity);
-                scanlinesOverlay.setBackground(scanlinesDrawable);
-                scanlinesOverlay.setVisibility(android.view.View.VISIBLE);
-            } else {
-                scanlinesOverlay.setVisibility(android.view.View.GONE);
-            }
-
-            // Apply chromatic aberration if enabled
-            if (chromaticEnabled) {
-                ChromaticAberrationDrawable chromaticDrawable = new ChromaticAberrationDrawable(chromaticIntensity);
-                chromaticOverlay.setBackground(chromaticDrawable);
-                chromaticOverlay.setVisibility(android.view.View.VISIBLE);
-            } else {
-                chromaticOverlay.setVisibility(android.view.View.GONE);
-            }
-        }
-
-        // Handle back button press
-        getOnBackPressedDispatcher().addCallback(this, new OnBackPressedCallback(true) {
-            @Override
-            public void handleOnBackPressed() {
-                String entryTitle = title.getText().toString();
-                String entryBody = editText.getText().toString();
-
-                if(!edit) {
-                    // Defensive check: encrypted note must have password
-                    if(isEncrypted && encryptionPassword == null) {
-                        Toast.makeText(EditorActivity.this, "Encryption error: password not set", Toast.LENGTH_LONG).show();
-                        return;
-                    }
-
-                    Entry newEntry = new Entry();
-                    newEntry.title = entryTitle;
-                    newEntry.isEncrypted = isEncrypted;
-
-                    // Encrypt body if needed
-                    if(isEncrypted && encryptionPassword != null) {
-                        try {
-                            newEntry.body = CryptoManager.INSTANCE.encrypt(entryBody, encryptionPassword);
-                        } catch (Exception e) {
-                            Toast.makeText(EditorActivity.this, "Encryption failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                            return;
-                        }
-                    } else {
-                        newEntry.body = entryBody;
-                    }
-
-                    newEntry.categoryId = activeCategory;
-                    long newId = handler.addEntry(newEntry);
-
-                    // Store session password for this new note if encrypted and save succeeded
-                    if(newId != -1 && isEncrypted && encryptionPassword != null) {
-                        CryptoManager.INSTANCE.setSessionPassword(newId, encryptionPassword);
-                    }
-                } else {
-                    // Defensive check: encrypted note must have password
-                    if(isEncrypted && encryptionPassword == null) {
-                        Toast.makeText(EditorActivity.this, "Encryption error: password not set", Toast.LENGTH_LONG).show();
-                        return;
-                    }
-
-                    Entry updatedEntry = new Entry();
-                    updatedEntry.title = entryTitle;
-                    updatedEntry.isEncrypted = isEncrypted;
-
-                    // Encrypt body if needed
-                    if(isEncrypted && encryptionPassword != null) {
-                        try {
-                            // Reuse salt from original encrypted body if available (for instant re-encryption)
-                            byte[] existingSalt = null;
-                            if(thisEntry.isEncrypted && thisEntry.body != null) {
-                                existingSalt = CryptoManager.INSTANCE.extractSalt(thisEntry.body);
-                            }
-                            updatedEntry.body = CryptoManager.INSTANCE.encrypt(entryBody, encryptionPassword, existingSalt);
-                        } catch (Exception e) {
-                            Toast.makeText(EditorActivity.this, "Encryption failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                            return;
-                        }
-                    } else {
-                        updatedEntry.body = entryBody;
-                    }
-
-                    // Check if anything has changed
-                    boolean titleChanged = !thisEntry.title.equals(updatedEntry.title);
-                    // Compare plaintext body, not encrypted strings (to avoid re-encryption false positives)
-                    boolean bodyChanged = !originalBodyText.equals(entryBody);
-                    boolean encryptionChanged = thisEntry.isEncrypted != updatedEntry.isEncrypted;
-
-                    if(titleChanged || bodyChanged || encryptionChanged) {
-                        handler.updateEntry(id, updatedEntry);
-                    }
-
-                    // Update session password for this note if encrypted
-                    if(isEncrypted && encryptionPassword != null) {
-                        CryptoManager.INSTANCE.setSessionPassword(id, encryptionPassword);
-                    } else if(!isEncrypted) {
-                        // Clear session if encryption was removed
-                        CryptoManager.INSTANCE.clearSessionPassword(id);
-                    }
-
-                    if(updatedEntry.title.isEmpty() && entryBody.isEmpty()) {
-                        handler.deleteEntry(id);
-                        // Clear session password for deleted note
-                        CryptoManager.INSTANCE.clearSessionPassword(id);
-                    }
-                }
-
-                finish();
-            }
-        });
-    }
-}
+package com.flawiddsouza.writer;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import androidx.activity.OnBackPressedCallback;
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.ActionBar.LayoutParams;
+import androidx.appcompat.app.AppCompatActivity;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.ToggleButton;
+import android.widget.Toast;
+
+import java.util.UUID;
+
+public class EditorActivity extends AppCompatActivity {
+
+    // How long typing has to pause before the note is saved
+    private static final long AUTOSAVE_DELAY_MS = 1500;
+
+    private EditText title;
+    private EditText editText;
+    private ToggleButton lockToggle;
+    private android.view.View scanlinesOverlay;
+    private android.view.View chromaticOverlay;
+    private boolean edit;
+    private long activeCategory;
+    private long id;
+    WriterRepository repository;
+    Entry thisEntry;
+    private boolean isEncrypted;
+    private char[] encryptionPassword;
+    private byte[] wrappedKey; // the data key of a vault note, which is encrypted with it instead of encryptionPassword
+    private boolean isProgrammaticToggleChange;
+    private boolean isProgrammaticTextChange;
+    // Edited since the last save, set by the text watcher and the lock toggle
+    private boolean dirty;
+    private boolean inserting; // a new note's first save is still running, later saves wait for its id
+    private String insertKey; // names a new note's first save, so an editor recreated meanwhile can find its id
+    private boolean insertKeyHandedOver; // the recreated editor takes over the note
+    private byte[] encryptionSalt; // salt of the last encrypted save, reused so the key isn't derived again
+    private int passwordVersion; // bumped on password changes, so a salt for an older password isn't kept
+    private final Handler autosaveHandler = new Handler(Looper.getMainLooper());
+    private final Runnable autosave = this::save;
+    private EditJournal journal; // unsaved edits of unencrypted notes, for recovery if the process dies
+    private LargeNoteWindow largeNote; // set for notes too large to edit whole
+    private boolean largeNoteMoving; // true while the next window is loading
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_editor);
+
+        ActionBar actionBar = getSupportActionBar();
+        View view = getLayoutInflater().inflate(R.layout.custom_action_bar, null);
+        actionBar.setDisplayShowTitleEnabled(false);
+        actionBar.setDisplayShowHomeEnabled(false);
+        actionBar.setDisplayShowCustomEnabled(true);
+        LayoutParams layoutParams = new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT); // Why? See: http://stackoverflow.com/a/23399652/4932305
+        actionBar.setCustomView(view, layoutParams);
+
+        title = (EditText) findViewById(R.id.actionBarTitle);
+        editText = (EditText) findViewById(R.id.editText);
+        lockToggle = (ToggleButton) findViewById(R.id.lockToggle);
+        scanlinesOverlay = findViewById(R.id.scanlines_overlay);
+        chromaticOverlay = findViewById(R.id.chromatic_overlay);
+        repository = WriterRepository.getInstance(this);
+
+        Bundle bundle = getIntent().getExtras();
+        edit = bundle.getBoolean("edit");
+        activeCategory = bundle.getLong("activeCategory");
+        if(savedInstanceState != null && savedInstanceState.containsKey("id")) {
+            // A new note that was autosaved before the activity was recreated
+            edit = true;
+            bundle.putLong("id", savedInstanceState.getLong("id"));
+        }
+
+        if(edit) {
+            id = bundle.getLong("id");
+            repository.getEntryForEditing(id, entry -> showEntry(entry, bundle));
+        } else if(savedInstanceState != null && savedInstanceState.containsKey("insertKey")) {
+            // Recreated while the new note was being added, its restored text is saved once its id is known
+            isEncrypted = false;
+            inserting = true;
+            insertKey = savedInstanceState.getString("insertKey");
+            repository.getInsertedId(insertKey, this::adoptInsertedNote);
+        } else {
+            isEncrypted = false;
+            lockToggle.setChecked(false);
+            insertKey = UUID.randomUUID().toString();
+            journal = new EditJournal(this, -1, activeCategory, 0);
+        }
+
+        title.addTextChangedListener(new EditWatcher(EditJournal.FIELD_TITLE));
+        editText.addTextChangedListener(new EditWatcher(EditJournal.FIELD_BODY));
+
+        // Set up lock toggle click listener (for password change)
+        lockToggle.setOnClickListener(v -> {
+            if(lockToggle.isChecked() && isEncrypted && wrappedKey != null) {
+                Toast.makeText(EditorActivity.this, "Vault notes use the vault password", Toast.LENGTH_SHORT).show();
+            } else if(lockToggle.isChecked() && isEncrypted) {
+                // Already locked and encrypted - change password (don't unlock)
+                new PasswordSetupDialog(EditorActivity.this, newPassword -> {
+                    // Clear old password and set new one
+                    if(encryptionPassword != null) {
+                        CryptoManager.INSTANCE.clearPassword(encryptionPassword);
+                    }
+                    encryptionPassword = newPassword;
+                    encryptionSalt = null;
+                    passwordVersion++;
+                    markDirty();
+                    Toast.makeText(EditorActivity.this, "Password changed. Note will be re-encrypted on save", Toast.LENGTH_SHORT).show();
+                    return kotlin.Unit.INSTANCE;
+                }, () -> {
+                    // User cancelled - do nothing
+                    return kotlin.Unit.INSTANCE;
+                }, "Change Encryption Password", "Enter new password for this note").show();
+            }
+        });
+
+        // Set up lock toggle change listener (for setting password when unlocked)
+        lockToggle.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            // Ignore programmatic toggle changes
+            if(isProgrammaticToggleChange) {
+                return;
+            }
+
+            if(isChecked && !isEncrypted) {
+                repository.hasVault(hasVault -> {
+                    if(hasVault != null && hasVault) {
+                        // Vault mode - the note goes into the vault
+                        VaultUnlockDialog.unlockThen(EditorActivity.this, repository, () -> {
+                            if(largeNote != null) {
+                                encryptLargeNote(null);
+                                return;
+                            }
+                            moveToVault();
+                            isEncrypted = true;
+                            discardJournal(); // it would keep the note's text unencrypted
+                            Toast.makeText(EditorActivity.this, "Note will be encrypted on save", Toast.LENGTH_SHORT).show();
+                        }, this::uncheckLockToggle);
+                        return;
+                    }
+                    // User toggled to locked on unencrypted note - set password
+                    new PasswordSetupDialog(EditorActivity.this, password -> {
+                        if(largeNote != null) {
+                            encryptLargeNote(password);
+                            return kotlin.Unit.INSTANCE;
+                        }
+                        encryptionPassword = password;
+                        encryptionSalt = null;
+                        passwordVersion++;
+                        isEncrypted = true;
+                        discardJournal(); // it would keep the note's text unencrypted
+                        markDirty();
+                        Toast.makeText(EditorActivity.this, "Note will be encrypted on save", Toast.LENGTH_SHORT).show();
+                        return kotlin.Unit.INSTANCE;
+                    }, () -> {
+                        // User cancelled - uncheck the toggle
+                        uncheckLockToggle();
+                        return kotlin.Unit.INSTANCE;
+                    }).show();
+                });
+            } else if(!isChecked && isEncrypted) {
+                // User tried to unlock an encrypted note - block it and restore lock
+                isProgrammaticToggleChange = true;
+                lockToggle.setChecked(true);
+                isProgrammaticToggleChange = false;
+            }
+        });
+
+        // Set up long press to remove encryption (only works when encrypted)
+        lockToggle.setOnLongClickListener(v -> {
+            if(lockToggle.isChecked() && isEncrypted) {
+                // Show confirmation dialog to remove encryption
+                new android.app.AlertDialog.Builder(this)
+                    .setTitle("Remove Encryption?")
+                    .setMessage("Are you sure you want to remove encryption from this note? It will be saved as plain text.")
+                    .setPositiveButton("Remove Encryption", (dialog, which) -> {
+                        isEncrypted = false;
+                        if(encryptionPassword != null) {
+                            CryptoManager.INSTANCE.clearPassword(encryptionPassword);
+                        }
+                        encryptionPassword = null;
+                        encryptionSalt = null;
+                        wrappedKey = null;
+                        markDirty();
+                        isProgrammaticToggleChange = true;
+                        lockToggle.setChecked(false);
+                        isProgrammaticToggleChange = false;
+                        // Different message for new vs existing encrypted notes
+                        String toastMsg = (edit && thisEntry.isEncrypted)
+                            ? "Encryption will be removed on save"
+                            : "Encryption removed";
+                        Toast.makeText(this, toastMsg, Toast.LENGTH_SHORT).show();
+                    })
+                    .setNegativeButton("Cancel", null)
+                    .show();
+                return true; // Consume the long click event
+            }
+            return false; // Don't consume if not encrypted
+        });
+
+
+        // Privacy Mode
+        PrivacyStyle privacyStyle = PrivacyStyle.get(this);
+        if(privacyStyle.enabled) {
+            privacyStyle.applyToEditableText(editText);
+            privacyStyle.applyToEditableText(title);
+            privacyStyle.applyToOverlays(scanlinesOverlay, chromaticOverlay);
+        }
+
+        // Handle back button press
+        getOnBackPressedDispatcher().addCallback(this, new OnBackPressedCallback(true) {
+            @Override
+            public void handleOnBackPressed() {
+                if(edit && thisEntry == null) { // still loading, nothing to save
+                    finish();
+                    return;
+                }
+
+                if(largeNote != null) {
+                    closeLargeEntry();
+                    finish();
+                    return;
+                }
+
+                // Defensive check: encrypted note must have password
+                if(isEncrypted && encryptionPassword == null && wrappedKey == null) {
+                    Toast.makeText(EditorActivity.this, "Encryption error: password not set", Toast.LENGTH_LONG).show();
+                    return;
+                }
+
+                save(); // only queues the write, closing doesn't wait for it
+                if(journal != null) {
+                    journal.close();
+                }
+
+                if(edit) {
+                    // Update session password for this note if encrypted
+                    if(isEncrypted) {
+                        if(wrappedKey == null) { // vault notes have no password of their own
+                            CryptoManager.INSTANCE.setSessionPassword(id, encryptionPassword);
+                        }
+                    } else {
+                        // Clear session if encryption was removed
+                        CryptoManager.INSTANCE.clearSessionPassword(id);
+                    }
+
+                    if(title.length() == 0 && editText.length() == 0) {
+                        discardJournal();
+                        repository.deleteEntry(id, null);
+                        // Clear session password for deleted note
+                        CryptoManager.INSTANCE.clearSessionPassword(id);
+                    }
+                }
+
+                finish();
+            }
+        });
+    }
+
+    private void showEntry(Entry entry, Bundle bundle) {
+        thisEntry = entry;
+        isProgrammaticTextChange = true;
+        title.setText(thisEntry.title);
+        isProgrammaticTextChange = false;
+
+        if(thisEntry.bodyLength >= 0) {
+            showLargeEntry();
+            return;
+        }
+
+        // Handle encrypted notes
+        isEncrypted = thisEntry.isEncrypted;
+        if(isEncrypted) {
+            wrappedKey = thisEntry.wrappedKey;
+            if(wrappedKey == null) {
+                // Get password from session or bundle for THIS note
+                encryptionPassword = CryptoManager.INSTANCE.getSessionPassword(id);
+                if(encryptionPassword == null) {
+                    encryptionPassword = bundle.getCharArray("password");
+                }
+            }
+
+            // Get pre-decrypted body from MainActivity (no need to decrypt again)
+            String decryptedBody = bundle.getString("decryptedBody");
+            if(decryptedBody != null) {
+                isProgrammaticTextChange = true;
+                editText.setText(decryptedBody);
+                isProgrammaticTextChange = false;
+                if(wrappedKey == null) {
+                    encryptionSalt = CryptoManager.INSTANCE.extractSalt(thisEntry.encryptedBody);
+                    if(CryptoManager.INSTANCE.isVaultUnlocked()) {
+                        offerMoveToVault();
+                    }
+                }
+            } else {
+                // Fallback: shouldn't happen for encrypted notes
+                Toast.makeText(this, "Failed to open encrypted note", Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
+            isProgrammaticToggleChange = true;
+            lockToggle.setChecked(true);
+            isProgrammaticToggleChange = false;
+        } else {
+            isProgrammaticTextChange = true;
+            editText.setText(thisEntry.body);
+            isProgrammaticTextChange = false;
+            journal = new EditJournal(this, id, activeCategory, thisEntry.updatedAt);
+            isProgrammaticToggleChange = true;
+            lockToggle.setChecked(false);
+            isProgrammaticToggleChange = false;
+        }
+
+        editText.setSelection(editText.getText().length()); // Place cursor at the end of text
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        save();
+        if(journal != null) {
+            journal.flush();
+        }
+        if(largeNote != null && !isFinishing()) {
+            saveLargeNotePosition();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if(edit && !getIntent().getBooleanExtra("edit", false)) {
+            outState.putLong("id", id); // so the recreated editor updates the note instead of adding another
+        } else if(inserting && insertKey != null) {
+            outState.putString("insertKey", insertKey); // the id isn't known yet, the recreated editor asks for it
+            insertKeyHandedOver = true;
+        }
+    }
+
+    // Takes over the note an earlier instance of this editor was adding, or adds it itself if that failed
+    private void adoptInsertedNote(Long insertedId) {
+        if(insertKeyHandedOver) {
+            return; // recreated again meanwhile, the next instance takes over
+        }
+        repository.forgetInsertedId(insertKey);
+        if(insertedId == null) {
+            inserting = false;
+            insertKey = UUID.randomUUID().toString();
+            journal = new EditJournal(this, -1, activeCategory, 0);
+            journal.record(EditJournal.FIELD_TITLE, 0, 0, title.getText().toString());
+            journal.record(EditJournal.FIELD_BODY, 0, 0, editText.getText().toString());
+            markDirty();
+            return;
+        }
+        repository.getEntryForEditing(insertedId, entry -> {
+            inserting = false;
+            if(entry.title == null) {
+                finish(); // deleted meanwhile
+                return;
+            }
+            id = insertedId;
+            edit = true;
+            thisEntry = entry;
+            if(entry.isEncrypted) {
+                isEncrypted = true;
+                wrappedKey = entry.wrappedKey;
+                if(wrappedKey == null) {
+                    // set by the insert, see save()
+                    encryptionPassword = CryptoManager.INSTANCE.getSessionPassword(id);
+                    encryptionSalt = CryptoManager.INSTANCE.extractSalt(entry.encryptedBody);
+                    if(encryptionPassword == null) {
+                        Toast.makeText(this, "Failed to open encrypted note", Toast.LENGTH_SHORT).show();
+                        finish();
+                        return;
+                    }
+                }
+                isProgrammaticToggleChange = true;
+                lockToggle.setChecked(true);
+                isProgrammaticToggleChange = false;
+            } else {
+                journal = new EditJournal(this, id, activeCategory, entry.updatedAt);
+            }
+            save(); // anything the restored text has that the insert didn't
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        autosaveHandler.removeCallbacks(autosave);
+    }
+
+    //-----------------------Autosave--------------------------
+
+    // Marks the note dirty on every edit the user makes and journals the edit
+    private class EditWatcher implements TextWatcher {
+        private final int field;
+
+        EditWatcher(int field) {
+            this.field = field;
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if(!isProgrammaticTextChange && journal != null) {
+                journal.record(field, start, before, s.subSequence(start, start + count).toString());
+            }
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            if(!isProgrammaticTextChange) {
+                markDirty();
+            }
+        }
+    }
+
+    // Encrypts the note with a new vault data key from the next save on, the vault has to be unlocked
+    private void moveToVault() {
+        wrappedKey = CryptoManager.INSTANCE.newWrappedKey();
+        markDirty();
+    }
+
+    // Asks whether a note with its own password should move into the unlocked vault. Never done without asking,
+    // since vault mode can't be turned off while vault notes are left.
+    private void offerMoveToVault() {
+        new android.app.AlertDialog.Builder(this)
+            .setTitle("Move to Vault?")
+            .setMessage("This note has its own password. Move it into the vault so it opens with the vault password? Vault mode can't be turned off while notes are in the vault.")
+            .setPositiveButton("Move to Vault", (dialog, which) -> {
+                if(!isEncrypted || wrappedKey != null || !CryptoManager.INSTANCE.isVaultUnlocked()) {
+                    return; // encryption removed or changed meanwhile
+                }
+                moveToVault();
+                Toast.makeText(this, "Note will be moved to the vault on save", Toast.LENGTH_SHORT).show();
+            })
+            .setNegativeButton("Keep Password", null)
+            .show();
+    }
+
+    private void uncheckLockToggle() {
+        isProgrammaticToggleChange = true;
+        lockToggle.setChecked(false);
+        isProgrammaticToggleChange = false;
+    }
+
+    private void discardJournal() {
+        if(journal != null) {
+            journal.discard();
+            journal = null;
+        }
+    }
+
+    private void markDirty() {
+        dirty = true;
+        autosaveHandler.removeCallbacks(autosave);
+        autosaveHandler.postDelayed(autosave, AUTOSAVE_DELAY_MS);
+    }
+
+    // Saves the note if it was edited since the last save. Only the text is copied out of the views here,
+    // the encryption and the write happen on the repository's write thread.
+    private void save() {
+        autosaveHandler.removeCallbacks(autosave);
+        if(!dirty || inserting || (edit && thisEntry == null)) {
+            return;
+        }
+        if(largeNote != null) {
+            if(!largeNoteMoving) { // otherwise the window was saved when the move started
+                saveLargeNoteWindow();
+            }
+            dirty = false;
+            return;
+        }
+        if(isEncrypted && encryptionPassword == null && wrappedKey == null) {
+            return; // reported when the editor is closed
+        }
+
+        Entry entry = new Entry();
+        entry.title = title.getText().toString();
+        entry.body = editText.getText().toString();
+        entry.isEncrypted = isEncrypted;
+        entry.wrappedKey = isEncrypted ? wrappedKey : null;
+        entry.categoryId = activeCategory;
+        if(!edit) {
+            if(entry.title.isEmpty() && entry.body.isEmpty()) {
+                return; // nothing to add yet
+            }
+            inserting = true;
+        }
+        // An existing note that was emptied isn't written, closing the editor deletes it
+        dirty = false;
+
+        char[] password = isEncrypted && wrappedKey == null ? encryptionPassword.clone() : null;
+        String plainBody = entry.body; // entry.body is emptied once it's encrypted
+        int savedPasswordVersion = passwordVersion;
+        EditJournal savingJournal = journal;
+        int journalSegment = savingJournal != null ? savingJournal.startSegment(entry.title, entry.body) : -1;
+        repository.saveEntry(edit ? id : -1, insertKey, entry, password, encryptionSalt, savedId -> {
+            if(savingJournal != null) {
+                if(savedId != null && savedId != -1 && entry.updatedAt != 0) {
+                    savingJournal.saved(journalSegment, savedId, entry.updatedAt);
+                } else {
+                    savingJournal.saveFailed(); // or nothing was written, the journal keeps the edits
+                }
+            }
+            if(savedId == null || savedId == -1) {
+                inserting = false;
+                dirty = true; // left for the next save
+                Toast.makeText(EditorActivity.this, "Failed to save note", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            if(password != null && savedPasswordVersion == passwordVersion) {
+                encryptionSalt = CryptoManager.INSTANCE.extractSalt(entry.encryptedBody);
+            }
+            if(entry.isEncrypted && isEncrypted) {
+                UnlockedNotesIndex.put(savedId, entry.title, plainBody); // the editor keeps its password or the vault for the session
+            }
+            if(inserting) {
+                inserting = false;
+                id = savedId;
+                edit = true;
+                thisEntry = entry;
+                if(!insertKeyHandedOver) {
+                    repository.forgetInsertedId(insertKey);
+                }
+                // Store session password for this new note if encrypted
+                if(isEncrypted && encryptionPassword != null && wrappedKey == null) {
+                    CryptoManager.INSTANCE.setSessionPassword(id, encryptionPassword);
+                }
+                save(); // anything typed while it was being added
+            }
+        });
+    }
+
+    //-----------------------Large Notes--------------------------
+
+    // Large notes are edited a window at a time, see LargeNoteWindow, so the editor never holds or lays out
+    // the whole body. Encrypted notes are always edited whole, so encrypting one reopens it, see encryptLargeNote.
+    private void showLargeEntry() {
+        isEncrypted = false;
+        isProgrammaticToggleChange = true;
+        lockToggle.setChecked(false);
+        isProgrammaticToggleChange = false;
+
+        largeNote = new LargeNoteWindow(thisEntry.bodyLength);
+        // Reopens where the note was left
+        long position = getLargeNotePositions().getLong(Long.toString(id), 0);
+        long readStart = largeNote.readStartAround(position);
+        largeNoteMoving = true;
+        repository.getBodyWindow(id, readStart, LargeNoteWindow.WINDOW_CHARS, read -> {
+            largeNote.showAround(readStart, read != null ? read : "");
+            showLargeNoteWindow(largeNote.offsetOf(position));
+        });
+
+        // Scrolling past either end of the window moves to the next or previous one
+        editText.setOnScrollChangeListener((v, scrollX, scrollY, oldScrollX, oldScrollY) -> {
+            if(largeNoteMoving) {
+                return;
+            }
+            if(scrollY > oldScrollY && !editText.canScrollVertically(1) && largeNote.hasNext()) {
+                moveLargeNoteWindow(true);
+            } else if(scrollY < oldScrollY && !editText.canScrollVertically(-1) && largeNote.hasPrevious()) {
+                moveLargeNoteWindow(false);
+            }
+        });
+    }
+
+    private void showLargeNoteWindow(int selection) {
+        isProgrammaticTextChange = true;
+        editText.setText(largeNote.text);
+        isProgrammaticTextChange = false;
+        editText.setSelection(selection);
+        largeNoteMoving = false;
+    }
+
+    private void moveLargeNoteWindow(boolean forward) {
+        largeNoteMoving = true;
+        saveLargeNoteWindow(); // saved before the read is queued, so the read sees it
+        if(forward) {
+            long readStart = largeNote.nextStart();
+            repository.getBodyWindow(id, readStart, LargeNoteWindow.WINDOW_CHARS, read -> {
+                largeNote.showNext(readStart, read != null ? read : "");
+                showLargeNoteWindow(0);
+            });
+        } else {
+            long readStart = largeNote.previousStart();
+            repository.getBodyWindow(id, readStart, largeNote.start - readStart, read -> {
+                largeNote.showPrevious(readStart, read != null ? read : "");
+                showLargeNoteWindow(largeNote.text.length());
+            });
+        }
+    }
+
+    // Writes the shown window and the title back if either was edited, only the window is sent to the database
+    private void saveLargeNoteWindow() {
+        String windowText = editText.getText().toString();
+        String entryTitle = title.getText().toString();
+        if(!windowText.equals(largeNote.text) || !entryTitle.equals(thisEntry.title)) {
+            repository.replaceBodyWindow(id, entryTitle, largeNote.start, largeNote.length, windowText, null);
+            largeNote.saved(windowText);
+            thisEntry.title = entryTitle;
+        }
+    }
+
+    private void closeLargeEntry() {
+        if(largeNoteMoving) {
+            return; // the window being left was saved when the move started, the next one isn't shown yet
+        }
+        saveLargeNoteWindow();
+        if(thisEntry.title.isEmpty() && largeNote.bodyLength == 0) {
+            repository.deleteEntry(id, null);
+            getLargeNotePositions().edit().remove(Long.toString(id)).apply();
+        } else {
+            saveLargeNotePosition();
+        }
+    }
+
+    private void saveLargeNotePosition() {
+        if(largeNoteMoving) {
+            return;
+        }
+        long position = largeNote.positionOf(editText.getText(), editText.getSelectionStart());
+        getLargeNotePositions().edit().putLong(Long.toString(id), position).apply();
+    }
+
+    // Encryption needs the whole body, so the repository encrypts the note in place as the list's Encrypt does,
+    // then it is decrypted and shown whole like any other encrypted note. A null password puts it in the vault.
+    // The window stays read-only until then, largeNoteMoving keeps saves and window moves away from it.
+    private void encryptLargeNote(char[] password) {
+        if(!largeNoteMoving) {
+            saveLargeNoteWindow(); // queued ahead of the encryption
+        }
+        largeNoteMoving = true;
+        editText.setEnabled(false);
+        CancellationSignal cancellation = new CancellationSignal();
+        CryptoProgress progress = new CryptoProgress(this, "Encrypting note…", cancellation);
+        repository.encryptEntries(new long[] { id }, password, cancellation, encrypted -> {
+            if(encrypted == null || encrypted.isEmpty()) {
+                progress.dismiss();
+                if(isDestroyed()) {
+                    return;
+                }
+                if(!cancellation.isCanceled()) {
+                    Toast.makeText(this, "Failed to encrypt note", Toast.LENGTH_SHORT).show();
+                }
+                uncheckLockToggle();
+                editText.setEnabled(true);
+                largeNoteMoving = false;
+                return;
+            }
+            if(password != null) {
+                CryptoManager.INSTANCE.setSessionPassword(id, password);
+            }
+            getLargeNotePositions().edit().remove(Long.toString(id)).apply();
+            if(isDestroyed()) {
+                progress.dismiss();
+                return;
+            }
+            repository.getEntryForEditing(id, entry -> {
+                // already encrypted, so a cancel from here on has nothing left to undo
+                repository.decryptBody(entry, password, new CancellationSignal(), decryptedBody -> {
+                    progress.dismiss();
+                    if(isDestroyed()) {
+                        return;
+                    }
+                    if(decryptedBody == null) {
+                        Toast.makeText(this, "Failed to open encrypted note", Toast.LENGTH_SHORT).show();
+                        finish();
+                        return;
+                    }
+                    editText.setOnScrollChangeListener(null);
+                    editText.setEnabled(true);
+                    largeNote = null;
+                    largeNoteMoving = false;
+                    Bundle reopened = new Bundle();
+                    reopened.putString("decryptedBody", decryptedBody);
+                    showEntry(entry, reopened);
+                });
+            });
+        });
+    }
+
+    private SharedPreferences getLargeNotePositions() {
+        return getSharedPreferences("large_note_positions", MODE_PRIVATE);
+    }
+}
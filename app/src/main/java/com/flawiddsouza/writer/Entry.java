@@ -1,12 +1,27 @@
-package com.flawiddsouza.writer;
-
-import java.util.Date;
-
-public class Entry {
-    public String title;
-    public String body;
-    public Long categoryId;
-    public Date createdAt;
-    public Date updatedAt;
-    public boolean isEncrypted;
-}
+package com.flawiddsouza.writer;
+
+public class Entry {
+    public String title;
+    public String body; // empty for encrypted notes, which have encryptedBody instead
+    public Long categoryId;
+    public long createdAt; // epoch millis
+    public long updatedAt;
+    public boolean isEncrypted;
+    public byte[] encryptedBody; // envelope of the encrypted body, see CryptoManager
+    public byte[] wrappedKey; // the data key of a vault note, null for notes encrypted with their own password, see CryptoManager
+    public long bodyLength = -1; // set instead of body for notes too large to load whole, see WriterDatabaseHandler.getEntryForEditing
+
+    public Entry copy() {
+        Entry copy = new Entry();
+        copy.title = title;
+        copy.body = body;
+        copy.categoryId = categoryId;
+        copy.createdAt = createdAt;
+        copy.updatedAt = updatedAt;
+        copy.isEncrypted = isEncrypted;
+        copy.encryptedBody = encryptedBody;
+        copy.wrappedKey = wrappedKey;
+        copy.bodyLength = bodyLength;
+        return copy;
+    }
+}
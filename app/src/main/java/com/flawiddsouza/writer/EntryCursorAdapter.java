@@ -1,215 +1,249 @@
-package com.flawiddsouza.writer;
-
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.graphics.Color;
-import android.graphics.Typeface;
-import androidx.preference.PreferenceManager;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.CursorAdapter;
-import android.widget.TextView;
-
-public class EntryCursorAdapter extends CursorAdapter {
-
-    private String title;
-    private String body;
-    private boolean isEncrypted;
-
-    public EntryCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0);
-    }
-
-    private int getItemViewType(Cursor cursor) {
-        title = cursor.getString(cursor.getColumnIndexOrThrow("title"));
-        body = cursor.getString(cursor.getColumnIndexOrThrow("body"));
-        isEncrypted = cursor.getInt(cursor.getColumnIndexOrThrow("is_encrypted")) == 1;
-        if (title.isEmpty() || body.isEmpty()) {
-            return 0;
-        } else {
-            return 1;
-        }
-    }
-
-    @Override
-    public int getItemViewType(int position) {
-        Cursor cursor = (Cursor) getItem(position);
-        return getItemViewType(cursor);
-    }
-
-    @Override
-    public int getViewTypeCount() {
-        return 2;
-    }
-
-    // The newView method is used to inflate a new view and return it,
-    // you don't bind any data to the view at this point.
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        if(title.isEmpty() || body.isEmpty()) {
-            return LayoutInflater.from(context).inflate(R.layout.list_item_1, parent, false);
-        } else {
-            return LayoutInflater.from(context).inflate(R.layout.list_item_2, parent, false);
-        }
-    }
-
-    // The bindView method is used to bind all data to a given view
-    // such as setting the text on a TextView.
-    @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean privacyEnabled = preferences.getBoolean("Privacy_Mode_Boolean", false);
-
-        // Reset background
-        view.setBackgroundColor(Color.TRANSPARENT);
-
-        // Get overlay views
-        View scanlinesOverlay = view.findViewById(R.id.scanlines_overlay);
-        View chromaticOverlay = view.findViewById(R.id.chromatic_overlay);
-
-        if(!title.isEmpty() && !body.isEmpty()) { // if both are not empty
-            TextView tvTitle = (TextView) view.findViewById(R.id.text1);
-            TextView tvBody = (TextView) view.findViewById(R.id.text2);
-
-            // Show encrypted notes subtly
-            if(isEncrypted) {
-                tvTitle.setText(title);
-                tvBody.setText("•••"); // Just dots, very subtle
-            } else {
-                String bodyWithoutLineBreaks = body.replace("\n", "").replace("\r", "");
-                tvTitle.setText(title);
-                tvBody.setText(bodyWithoutLineBreaks);
-            }
-
-            // Reset styles
-            tvTitle.setTypeface(null, Typeface.NORMAL);
-            tvBody.setTypeface(null, Typeface.NORMAL);
-            tvTitle.setTextColor(Color.BLACK);
-            tvBody.setTextColor(Color.parseColor("#757575")); // Default gray
-            tvTitle.setShadowLayer(0, 0, 0, Color.TRANSPARENT);
-            tvBody.setShadowLayer(0, 0, 0, Color.TRANSPARENT);
-
-            // Privacy Mode
-            if(privacyEnabled) {
-                applyPrivacyMode(context, preferences, tvTitle, tvBody, scanlinesOverlay, chromaticOverlay);
-            } else {
-                // Hide overlays when privacy mode is off
-                if(scanlinesOverlay != null) scanlinesOverlay.setVisibility(View.GONE);
-                if(chromaticOverlay != null) chromaticOverlay.setVisibility(View.GONE);
-            }
-
-        } else if (!title.isEmpty() && body.isEmpty()) { // if title is not empty
-            TextView tvTitle = (TextView) view.findViewById(R.id.text1);
-
-            // No indication for encrypted - completely subtle
-            tvTitle.setText(title);
-            tvTitle.setTypeface(null, Typeface.NORMAL);
-            tvTitle.setTextColor(Color.BLACK);
-            tvTitle.setShadowLayer(0, 0, 0, Color.TRANSPARENT);
-
-            // Privacy Mode
-            if(privacyEnabled) {
-                applyPrivacyMode(context, preferences, tvTitle, null, scanlinesOverlay, chromaticOverlay);
-            } else {
-                // Hide overlays when privacy mode is off
-                if(scanlinesOverlay != null) scanlinesOverlay.setVisibility(View.GONE);
-                if(chromaticOverlay != null) chromaticOverlay.setVisibility(View.GONE);
-            }
-
-        } else if (title.isEmpty() && !body.isEmpty()) { // if body is not empty
-            TextView tvBody = (TextView) view.findViewById(R.id.text1);
-
-            // Show dots if encrypted, otherwise show body
-            if(isEncrypted) {
-                tvBody.setText("•••");
-            } else {
-                tvBody.setText(body);
-            }
-
-            tvBody.setTypeface(null, Typeface.NORMAL);
-            tvBody.setTextColor(Color.BLACK);
-            tvBody.setShadowLayer(0, 0, 0, Color.TRANSPARENT);
-
-            // Privacy Mode
-            if(privacyEnabled) {
-                applyPrivacyMode(context, preferences, tvBody, null, scanlinesOverlay, chromaticOverlay);
-            } else {
-                // Hide overlays when privacy mode is off
-                if(scanlinesOverlay != null) scanlinesOverlay.setVisibility(View.GONE);
-                if(chromaticOverlay != null) chromaticOverlay.setVisibility(View.GONE);
-            }
-        }
-
-    }
-
-    private void applyPrivacyMode(Context context, SharedPreferences preferences,
-                                  TextView text1, TextView text2,
-                                  View scanlinesOverlay, View chromaticOverlay) {
-        boolean opacityEnabled = preferences.getBoolean("Privacy_Mode_Opacity_Enabled", false);
-        boolean shadowEnabled = preferences.getBoolean("Privacy_Mode_Shadow_Enabled", false);
-        boolean scanlinesEnabled = preferences.getBoolean("Privacy_Mode_Scanlines_Enabled", false);
-        boolean chromaticEnabled = preferences.getBoolean("Privacy_Mode_Chromatic_Enabled", false);
-        int opacityIntensity = preferences.getInt("Privacy_Mode_Opacity_Value", 128);
-        int shadowIntensity = preferences.getInt("Privacy_Mode_Shadow_Value", 128);
-        int scanlinesIntensity = preferences.getInt("Privacy_Mode_Scanlines_Value", 50);
-        int chromaticIntensity = preferences.getInt("Privacy_Mode_Chromatic_Value", 30);
-
-        // Calculate text and shadow alpha
-        int textAlpha = 255;
-        int shadowAlpha = 0;
-
-        if (opacityEnabled && !shadowEnabled) {
-            // Only opacity: reduce text transparency
-            textAlpha = 255 - opacityIntensity;
-        } else if (shadowEnabled && !opacityEnabled) {
-            // Only shadow: transparent text with shadow
-            textAlpha = 0;
-            shadowAlpha = 60 + (int)(shadowIntensity / 2.8f); // 60-150 range
-        } else if (opacityEnabled && shadowEnabled) {
-            // Both: text is transparent, opacity controls shadow transparency
-            textAlpha = 0;
-            int baseShadowAlpha = 60 + (int)(shadowIntensity / 2.8f);
-            shadowAlpha = (int)(baseShadowAlpha * (255 - opacityIntensity) / 255.0f);
-        }
-
-        // Apply shadow if enabled
-        if (shadowEnabled && shadowAlpha > 0) {
-            float shadowRadius = 2 + (shadowIntensity / 40f); // 2-8 range (more blur)
-            float shadowOffset = 0.5f + (shadowIntensity / 200f); // 0.5-1.8 range (less offset)
-
-            text1.setShadowLayer(shadowRadius, shadowOffset, shadowOffset,
-                Color.argb(shadowAlpha, 0, 0, 0));
-            if(text2 != null) {
-                text2.setShadowLayer(shadowRadius, shadowOffset, shadowOffset,
-                    Color.argb(shadowAlpha, 0, 0, 0));
-            }
-        }
-
-        // Apply final text color
-        text1.setTextColor(Color.argb(textAlpha, 0, 0, 0));
-        if(text2 != null) {
-            text2.setTextColor(Color.argb(textAlpha, 117, 117, 117)); // #757575 with alpha
-        }
-
-        // Apply scanlines if enabled
-        if (scanlinesEnabled && scanlinesOverlay != null) {
-            ScanlinesDrawable scanlinesDrawable = new ScanlinesDrawable(scanlinesIntensity);
-            scanlinesOverlay.setBackground(scanlinesDrawable);
-            scanlinesOverlay.setVisibility(View.VISIBLE);
-        } else if(scanlinesOverlay != null) {
-            scanlinesOverlay.setVisibility(View.GONE);
-        }
-
-        // Apply chromatic aberration if enabled
-        if (chromaticEnabled && chromaticOverlay != null) {
-            ChromaticAberrationDrawable chromaticDrawable = new ChromaticAberrationDrawable(chromaticIntensity);
-            chromaticOverlay.setBackground(chromaticDrawable);
-            chromaticOverlay.setVisibility(View.VISIBLE);
-        } else if(chromaticOverlay != null) {
-            chromaticOverlay.setVisibility(View.GONE);
-        }
-    }
-}
+package com.flawiddsouza.writer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// The main list's adapter, reading rows straight from the cursor of the current EntryListUpdate.
+// Swapping in an update only rebinds the rows its diff says changed.
+// Also keeps track of which entries are selected, by id, so the selection survives refreshes.
+// Binding does no lookups: column indices are cached per cursor, views per holder, and the
+// privacy mode style is applied to a holder only when it changes.
+// Row text is laid out in the background by a RowTextCache, so binding doesn't measure it either.
+public class EntryCursorAdapter extends RecyclerView.Adapter<EntryCursorAdapter.ViewHolder> {
+
+    // Rows with only a title or only a body use list_item_1, rows with both use list_item_2
+    private static final int VIEW_TYPE_SINGLE = 0;
+    private static final int VIEW_TYPE_BOTH = 1;
+
+    // The RowTextCache slots, one per TextView of each layout
+    private static final int SLOT_SINGLE_TEXT = 0;
+    private static final int SLOT_BOTH_TITLE = 1;
+    private static final int SLOT_BOTH_PREVIEW = 2;
+
+    private static final String ENCRYPTED_PREVIEW = "•••"; // Just dots, very subtle
+
+    public interface OnEntryClickListener {
+        void onEntryClick(long id);
+        void onEntryLongClick(long id);
+    }
+
+    private final Context context;
+    private final LayoutInflater inflater;
+    private EntryListUpdate shown = EntryListUpdate.EMPTY;
+    private final Set<Long> selectedIds = new HashSet<>();
+    private OnEntryClickListener onEntryClickListener;
+    private PrivacyStyle style;
+    private final RowTextCache rowText = new RowTextCache(3);
+
+    // Column indices of the shown cursor, every list query returns the same columns
+    private int titleColumn;
+    private int previewColumn;
+    private int hasTitleColumn;
+    private int hasBodyColumn;
+    private int isEncryptedColumn;
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final View content; // the text, without the overlays
+        // AppCompat inflates the layouts' TextViews as these, which can take text laid out in the background
+        final AppCompatTextView text1;
+        final AppCompatTextView text2; // only in rows with both a title and a body
+        final View scanlinesOverlay;
+        final View chromaticOverlay;
+        PrivacyStyle style; // the style last applied to this holder's views
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            content = itemView.findViewById(R.id.content);
+            text1 = itemView.findViewById(R.id.text1);
+            text2 = itemView.findViewById(R.id.text2);
+            scanlinesOverlay = itemView.findViewById(R.id.scanlines_overlay);
+            chromaticOverlay = itemView.findViewById(R.id.chromatic_overlay);
+        }
+    }
+
+    public EntryCursorAdapter(Context context) {
+        this.context = context;
+        inflater = LayoutInflater.from(context);
+        style = PrivacyStyle.get(context);
+    }
+
+    public void setOnEntryClickListener(OnEntryClickListener listener) {
+        onEntryClickListener = listener;
+    }
+
+    public EntryListUpdate getShown() {
+        return shown;
+    }
+
+    public Cursor getCursor() {
+        return shown.cursor;
+    }
+
+    // Shows update, animating just the changed rows if it was diffed against what is shown now
+    // The previous cursor isn't closed, whoever created it still owns it
+    public void swap(EntryListUpdate update) {
+        DiffUtil.DiffResult diff = update.takeDiff(shown);
+        if(update.cursor != null && update.cursor != shown.cursor) {
+            Cursor cursor = update.cursor;
+            titleColumn = cursor.getColumnIndexOrThrow("title");
+            previewColumn = cursor.getColumnIndexOrThrow("preview");
+            hasTitleColumn = cursor.getColumnIndexOrThrow("has_title");
+            hasBodyColumn = cursor.getColumnIndexOrThrow("has_body");
+            isEncryptedColumn = cursor.getColumnIndexOrThrow("is_encrypted");
+        }
+        shown = update;
+        if(diff != null) {
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    // Picks up the current privacy mode style, restyling the rows only if it changed
+    public void reloadStyle() {
+        PrivacyStyle newStyle = PrivacyStyle.get(context);
+        if(newStyle != style) {
+            style = newStyle;
+            notifyItemRangeChanged(0, getItemCount());
+        }
+    }
+
+    //-----------------------Selection--------------------------
+
+    public void toggleSelected(long id) {
+        if(!selectedIds.remove(id)) {
+            selectedIds.add(id);
+        }
+        for(int position = 0; position < shown.getCount(); position++) {
+            if(shown.getId(position) == id) {
+                notifyItemChanged(position);
+                break;
+            }
+        }
+    }
+
+    public long[] getSelectedIds() {
+        long[] ids = new long[selectedIds.size()];
+        int i = 0;
+        for(long id : selectedIds) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    public int getSelectedCount() {
+        return selectedIds.size();
+    }
+
+    public void clearSelection() {
+        if(!selectedIds.isEmpty()) {
+            selectedIds.clear();
+            notifyDataSetChanged();
+        }
+    }
+
+    //-----------------------Rows--------------------------
+
+    @Override
+    public int getItemCount() {
+        return shown.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return shown.getId(position);
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        Cursor cursor = shown.cursor;
+        cursor.moveToPosition(position);
+        boolean hasTitle = cursor.getInt(hasTitleColumn) == 1;
+        boolean hasBody = cursor.getInt(hasBodyColumn) == 1;
+        return hasTitle && hasBody ? VIEW_TYPE_BOTH : VIEW_TYPE_SINGLE;
+    }
+
+    // The onCreateViewHolder method is used to inflate a new view and return it,
+    // you don't bind any data to the view at this point.
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = inflater.inflate(viewType == VIEW_TYPE_BOTH ? R.layout.list_item_2 : R.layout.list_item_1, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if(position != RecyclerView.NO_POSITION && onEntryClickListener != null) {
+                onEntryClickListener.onEntryClick(shown.getId(position));
+            }
+        });
+        view.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if(position != RecyclerView.NO_POSITION && onEntryClickListener != null) {
+                onEntryClickListener.onEntryLongClick(shown.getId(position));
+                return true;
+            }
+            return false;
+        });
+        return holder;
+    }
+
+    // The onBindViewHolder method is used to bind all data to a given view
+    // such as setting the text on a TextView.
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        if(holder.style != style) {
+            applyStyle(holder);
+        }
+
+        Cursor cursor = shown.cursor;
+        cursor.moveToPosition(position);
+        boolean isEncrypted = cursor.getInt(isEncryptedColumn) == 1;
+        long id = shown.getId(position);
+        long updatedMs = shown.getUpdatedMs(position);
+
+        if(holder.text2 != null) { // if both are not empty
+            setText(holder.text1, SLOT_BOTH_TITLE, id, updatedMs, cursor, titleColumn);
+            // Show encrypted notes subtly
+            if(isEncrypted) {
+                RowTextCache.setPlainText(holder.text2, ENCRYPTED_PREVIEW);
+            } else {
+                setText(holder.text2, SLOT_BOTH_PREVIEW, id, updatedMs, cursor, previewColumn); // already stored without line breaks
+            }
+        } else if(cursor.getInt(hasTitleColumn) == 1) { // if title is not empty
+            // No indication for encrypted - completely subtle
+            setText(holder.text1, SLOT_SINGLE_TEXT, id, updatedMs, cursor, titleColumn);
+        } else { // if body is not empty
+            // Show dots if encrypted, otherwise show body
+            if(isEncrypted) {
+                RowTextCache.setPlainText(holder.text1, ENCRYPTED_PREVIEW);
+            } else {
+                setText(holder.text1, SLOT_SINGLE_TEXT, id, updatedMs, cursor, previewColumn);
+            }
+        }
+
+        // checking for an empty selection first skips boxing the id while nothing is selected
+        holder.itemView.setActivated(!selectedIds.isEmpty() && selectedIds.contains(id));
+    }
+
+    // Only reads the text out of the cursor when the cache doesn't have this version of it laid out already
+    private void setText(AppCompatTextView view, int slot, long id, long updatedMs, Cursor cursor, int column) {
+        if(!rowText.setCachedText(view, slot, id, updatedMs)) {
+            rowText.prepareText(view, slot, id, updatedMs, cursor.getString(column));
+        }
+    }
+
+    private void applyStyle(ViewHolder holder) {
+        holder.style = style;
+        style.applyToText(holder.content, holder.text1, holder.text2);
+        style.applyToOverlays(holder.scanlinesOverlay, holder.chromaticOverlay);
+    }
+}
\ No newline at end of file
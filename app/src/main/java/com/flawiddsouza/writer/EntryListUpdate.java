@@ -0,0 +1,92 @@
+package com.flawiddsouza.writer;
+
+import android.database.Cursor;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+// A cursor for the entry list together with how its rows differ from the rows the list was showing.
+// Built on a read thread, so the main thread only swaps the cursor in and rebinds the rows that changed.
+// Rows are matched on _id and count as changed when their updated_ms differs.
+public class EntryListUpdate {
+
+    static final EntryListUpdate EMPTY = new EntryListUpdate(null, new long[0], new long[0], null, null);
+
+    final Cursor cursor;
+    // never modified once the update is created
+    private final long[] ids;
+    private final long[] updatedMs;
+    // What the diff was computed against, both dropped once the update is shown
+    private EntryListUpdate base;
+    private DiffUtil.DiffResult diff;
+
+    private EntryListUpdate(Cursor cursor, long[] ids, long[] updatedMs, EntryListUpdate base, DiffUtil.DiffResult diff) {
+        this.cursor = cursor;
+        this.ids = ids;
+        this.updatedMs = updatedMs;
+        this.base = base;
+        this.diff = diff;
+    }
+
+    // For a cursor no one else is reading yet, walks it for the row keys
+    static EntryListUpdate create(Cursor cursor, EntryListUpdate base) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        long[] updatedMs = new long[count];
+        int idColumn = cursor.getColumnIndexOrThrow("_id");
+        int updatedMsColumn = cursor.getColumnIndexOrThrow("updated_ms");
+        for(int i = 0; i < count; i++) {
+            cursor.moveToPosition(i);
+            ids[i] = cursor.getLong(idColumn);
+            updatedMs[i] = cursor.getLong(updatedMsColumn);
+        }
+        cursor.moveToPosition(-1);
+        return create(cursor, ids, updatedMs, base);
+    }
+
+    // For a cursor whose row keys are already known, like one merged from pages the list is showing
+    static EntryListUpdate create(Cursor cursor, long[] ids, long[] updatedMs, EntryListUpdate base) {
+        EntryListUpdate shown = base != null ? base : EMPTY;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return shown.ids.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return ids.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return shown.ids[oldPosition] == ids[newPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return shown.updatedMs[oldPosition] == updatedMs[newPosition];
+            }
+        });
+        return new EntryListUpdate(cursor, ids, updatedMs, shown, diff);
+    }
+
+    int getCount() {
+        return ids.length;
+    }
+
+    long getId(int position) {
+        return ids[position];
+    }
+
+    long getUpdatedMs(int position) {
+        return updatedMs[position];
+    }
+
+    // The diff to animate when this update replaces shown, or null if it was computed against something else
+    DiffUtil.DiffResult takeDiff(EntryListUpdate shown) {
+        DiffUtil.DiffResult result = base == shown ? diff : null;
+        base = null;
+        diff = null;
+        return result;
+    }
+}
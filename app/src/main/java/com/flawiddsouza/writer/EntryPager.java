@@ -0,0 +1,112 @@
+package com.flawiddsouza.writer;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Loads the entries of a category newest first, one page at a time.
+// Pages are keyed on the (updated_ms, _id) of the last row loaded, so fetching
+// the next page costs the same no matter how far down the list it is.
+// Pages load on background threads, so loading and closing are synchronized
+// and the state the main thread reads is volatile.
+// The row keys of each page are read once as it loads, since the merged cursor
+// shares its pages with the cursor the list is showing and can't be walked again.
+public class EntryPager {
+
+    public static final int PAGE_SIZE = 50;
+
+    private final WriterDatabaseHandler handler;
+    private final long categoryId;
+    private final List<Cursor> pages = new ArrayList<>();
+    private volatile Cursor cursor;
+    private Long lastUpdatedMs;
+    private long lastId;
+    // Replaced rather than grown in place, since updates handed out earlier keep referencing them
+    private long[] ids = new long[0];
+    private long[] updatedMs = new long[0];
+    private volatile int loadedCount;
+    private volatile boolean exhausted;
+    private boolean closed;
+
+    public EntryPager(WriterDatabaseHandler handler, long categoryId) {
+        this.handler = handler;
+        this.categoryId = categoryId;
+    }
+
+    // Loads the first page, made big enough to hold at least minimumRows rows
+    // so a refresh doesn't shrink a list the user has already scrolled through.
+    // The result is diffed against shown, what the list is showing now.
+    public synchronized EntryListUpdate load(int minimumRows, EntryListUpdate shown) {
+        addPage(Math.max(PAGE_SIZE, minimumRows));
+        return EntryListUpdate.create(cursor, ids, updatedMs, shown);
+    }
+
+    // Appends the next page and returns everything loaded so far,
+    // or null if there was nothing left to load
+    public synchronized EntryListUpdate loadNextPage(EntryListUpdate shown) {
+        if(exhausted || closed) {
+            return null;
+        }
+        int countBefore = loadedCount;
+        addPage(PAGE_SIZE);
+        return loadedCount > countBefore ? EntryListUpdate.create(cursor, ids, updatedMs, shown) : null;
+    }
+
+    private void addPage(int limit) {
+        Cursor page = handler.getEntriesPage(categoryId, lastUpdatedMs, lastId, limit);
+        int count = page.getCount();
+        if(count < limit) {
+            exhausted = true;
+        }
+        if(count == 0) {
+            if(cursor == null) {
+                pages.add(page); // keep an empty cursor so the adapter always has one
+                cursor = page;
+            } else {
+                page.close();
+            }
+            return;
+        }
+        long[] newIds = Arrays.copyOf(ids, loadedCount + count);
+        long[] newUpdatedMs = Arrays.copyOf(updatedMs, loadedCount + count);
+        int idColumn = page.getColumnIndexOrThrow("_id");
+        int updatedMsColumn = page.getColumnIndexOrThrow("updated_ms");
+        for(int i = 0; i < count; i++) {
+            page.moveToPosition(i);
+            newIds[loadedCount + i] = page.getLong(idColumn);
+            newUpdatedMs[loadedCount + i] = page.getLong(updatedMsColumn);
+        }
+        page.moveToPosition(-1);
+        ids = newIds;
+        updatedMs = newUpdatedMs;
+        lastId = newIds[newIds.length - 1];
+        lastUpdatedMs = newUpdatedMs[newUpdatedMs.length - 1];
+        pages.add(page);
+        loadedCount += count;
+        cursor = pages.size() == 1 ? page : new MergeCursor(pages.toArray(new Cursor[0]));
+    }
+
+    // The cursor handed out by the last load, used to tell whether the list is still showing this pager
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        for(Cursor page : pages) {
+            page.close();
+        }
+        pages.clear();
+    }
+}
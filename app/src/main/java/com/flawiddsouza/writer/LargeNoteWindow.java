@@ -0,0 +1,94 @@
+package com.flawiddsouza.writer;
+
+// Where the editor is in a note too large to load whole, see WriterDatabaseHandler.LARGE_BODY_CHARS.
+// The editor shows one window of the body at a time, cut at line breaks where possible, and moves to
+// the next or previous window when the user scrolls past either end, saving the current one first if it was edited.
+// Offsets and lengths are in code points, the way SQLite counts characters.
+class LargeNoteWindow {
+
+    static final int WINDOW_CHARS = 32 * 1024;
+
+    long bodyLength;
+    long start; // of the shown window in the body
+    long length; // of the shown window as it was loaded or last saved
+    String text = ""; // the shown window as it was loaded or last saved, to tell whether it was edited
+
+    LargeNoteWindow(long bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+
+    boolean hasNext() {
+        return start + length < bodyLength;
+    }
+
+    boolean hasPrevious() {
+        return start > 0;
+    }
+
+    // Where to read WINDOW_CHARS from for a window around position
+    long readStartAround(long position) {
+        return Math.max(0, Math.min(position, bodyLength) - WINDOW_CHARS / 2);
+    }
+
+    long nextStart() {
+        return start + length;
+    }
+
+    // The previous window is read up to the start of this one
+    long previousStart() {
+        return Math.max(0, start - WINDOW_CHARS);
+    }
+
+    void showAround(long readStart, String read) {
+        show(readStart, read, true, true);
+    }
+
+    void showNext(long readStart, String read) {
+        show(readStart, read, false, true);
+    }
+
+    void showPrevious(long readStart, String read) {
+        show(readStart, read, true, false);
+    }
+
+    // Drops the partial line at the start and end of what was read, unless that is where the body starts or ends
+    // or the read has no line break to cut at
+    private void show(long readStart, String read, boolean trimStart, boolean trimEnd) {
+        int from = 0;
+        int to = read.length();
+        if(trimStart && readStart > 0) {
+            int lineStart = read.indexOf('\n') + 1;
+            if(lineStart > 0 && lineStart < read.length()) {
+                from = lineStart;
+            }
+        }
+        if(trimEnd && readStart + read.codePointCount(0, read.length()) < bodyLength) {
+            int lineEnd = read.lastIndexOf('\n') + 1;
+            if(lineEnd > from) {
+                to = lineEnd;
+            }
+        }
+        text = read.substring(from, to);
+        start = readStart + read.codePointCount(0, from);
+        length = text.codePointCount(0, text.length());
+    }
+
+    // Records that the shown window was saved with edited as its text, which shifts the rest of the body
+    void saved(String edited) {
+        long editedLength = edited.codePointCount(0, edited.length());
+        bodyLength += editedLength - length;
+        length = editedLength;
+        text = edited;
+    }
+
+    // The position in the body of offset in the shown window's current text
+    long positionOf(CharSequence current, int offset) {
+        return start + Character.codePointCount(current, 0, Math.max(0, Math.min(offset, current.length())));
+    }
+
+    // The offset in the shown window's text of position in the body, clamped to the window
+    int offsetOf(long position) {
+        long codePoints = Math.max(0, Math.min(position - start, length));
+        return text.offsetByCodePoints(0, (int) codePoints);
+    }
+}
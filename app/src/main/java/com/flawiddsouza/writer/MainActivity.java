@@ -1,448 +1,773 @@
-package com.flawiddsouza.writer;
-
-import android.app.AlertDialog;
-import android.content.ClipData;
-import android.content.ClipboardManager;
-import android.content.Context;
-import android.content.Intent;
-import android.database.Cursor;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.graphics.Color;
-import android.os.Bundle;
-import androidx.drawerlayout.widget.DrawerLayout;
-import androidx.appcompat.app.AppCompatActivity;
-import androidx.appcompat.widget.Toolbar;
-import android.text.Editable;
-import android.text.TextWatcher;
-import android.view.ContextMenu;
-import android.view.Menu;
-import android.view.MenuItem;
-import android.view.View;
-import android.view.ViewGroup;
-import android.view.WindowManager;
-import android.view.inputmethod.InputMethodManager;
-import android.widget.AdapterView;
-import android.widget.EditText;
-import android.widget.FrameLayout;
-import android.widget.LinearLayout;
-import android.widget.ListView;
-import android.widget.Toast;
-
-import java.text.SimpleDateFormat;
-
-public class MainActivity extends AppCompatActivity {
-
-    WriterDatabaseHandler handler;
-    EntryCursorAdapter entryCursorAdapter;
-
-    private boolean searchClicked = false;
-
-    private CategoryCursorAdapter categoryCursorAdapter;
-
-    private long activeCategory = -1;
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
-
-        handler = WriterDatabaseHandler.getInstance(this); // init handler
-
-        Toolbar toolbar = findViewById(R.id.toolbar);
-        setSupportActionBar(toolbar);
-
-        ListView mainListView = findViewById(R.id.mainListView);
-        entryCursorAdapter = new EntryCursorAdapter(this, createEntriesCursor());
-        mainListView.setAdapter(entryCursorAdapter);
-
-        mainListView.setTextFilterEnabled(true);
-
-        entryCursorAdapter.setFilterQueryProvider(searchQuery -> createEntriesCursorFiltered(searchQuery));
-
-        mainListView.setOnItemClickListener((parent, view, position, id) -> editNote(id));
-        registerForContextMenu(mainListView); // Register the ListView for Context menu
-
-        // Categories Drawer
-        ListView drawerListView = findViewById(R.id.navList);
-        drawerListView.setOnItemClickListener((parent, view, position, id) -> changeCategory(id));
-        registerForContextMenu(drawerListView);
-        categoryCursorAdapter = new CategoryCursorAdapter(this, createCategoriesCursor());
-        drawerListView.setAdapter(categoryCursorAdapter);
-
-        DrawerLayout mDrawerLayout = findViewById(R.id.drawer_layout);
-        mDrawerLayout.addDrawerListener(new DrawerLayout.DrawerListener() {
-
-            @Override
-            public void onDrawerSlide(View drawerView, float slideOffset) {
-                //Called when a drawer's position changes.
-            }
-
-            @Override
-            public void onDrawerOpened(View drawerView) {
-                findViewById(R.id.drawer_holder).bringToFront();
-                mDrawerLayout.requestLayout();
-            }
-
-            @Override
-            public void onDrawerClosed(View drawerView) {
-                // Called when a drawer has settled in a completely closed state.
-            }
-
-            @Override
-            public void onDrawerStateChanged(int newState) {
-                // Called when the drawer motion state changes. The new state will be one of STATE_IDLE, STATE_DRAGGING or STATE_SETTLING.
-            }
-        });
-    }
-
-    @Override
-    public boolean onCreateOptionsMenu(Menu menu) {
-        // Inflate the menu; this adds items to the action bar if it is present.
-        getMenuInflater().inflate(R.menu.menu_main, menu);
-
-        MenuItem search = menu.findItem(R.id.action_search);
-        MenuItem cancelSearch = menu.findItem(R.id.action_cancel_search);
-
-        if (searchClicked) {
-            search.setVisible(false);
-            cancelSearch.setVisible(true);
-        } else {
-            cancelSearch.setVisible(false);
-            search.setVisible(true);
-        }
-
-        return true;
-    }
-
-    @Override
-    public boolean onOptionsItemSelected(MenuItem item) {
-        int id = item.getItemId();
-
-        if (id == R.id.action_settings) {
-            Intent intent = new Intent(this, SettingsActivity.class);
-            startActivity(intent);
-            return true;
-        }
-
-        if(id == R.id.action_search) {
-            searchClicked = true;
-            invalidateOptionsMenu();
-
-            getSupportActionBar().setDisplayShowTitleEnabled(false);
-
-            EditText editText = new EditText(MainActivity.this);
-
-            editText.addTextChangedListener(new TextWatcher() {
-                @Override
-                public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
-
-                }
-
-                @Override
-                public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
-//                    Toast.makeText(MainActivity.this, editText.getText().toString(), Toast.LENGTH_LONG).show();
-                    entryCursorAdapter.getFilter().filter(editText.getText().toString());
-                }
-
-                @Override
-                public void afterTextChanged(Editable editable) {
-
-                }
-            });
-
-            editText.setTextColor(Color.WHITE);
-            editText.setBackgroundColor(Color.TRANSPARENT);
-
-            getSupportActionBar().setCustomView(editText);
-            getSupportActionBar().setDisplayShowCustomEnabled(true);
-
-            editText.getLayoutParams().width = LinearLayout.LayoutParams.MATCH_PARENT;
-
-            editText.requestFocus();
-            InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
-            imm.showSoftInput(editText, InputMethodManager.SHOW_IMPLICIT);
-
-            return true;
-        }
-
-        if(id == R.id.action_cancel_search) {
-            searchClicked = false;
-            invalidateOptionsMenu();
-
-            // close soft keyboard
-            View view = this.getCurrentFocus();
-            if (view != null) {
-                InputMethodManager imm = (InputMethodManager)getSystemService(Context.INPUT_METHOD_SERVICE);
-                imm.hideSoftInputFromWindow(view.getWindowToken(), 0);
-            }
-
-            entryCursorAdapter.swapCursor(createEntriesCursor()); // reset adapter to unfiltered query
-
-            getSupportActionBar().setDisplayShowCustomEnabled(false);
-            getSupportActionBar().setDisplayShowTitleEnabled(true);
-        }
-
-        return super.onOptionsItemSelected(item);
-    }
-
-    @Override
-    public void onResume()
-    {
-        super.onResume();
-        entryCursorAdapter.swapCursor(createEntriesCursor());
-    }
-
-    @Override
-    public void onCreateContextMenu(ContextMenu menu, View view, ContextMenu.ContextMenuInfo menuInfo)
-    {
-        super.onCreateContextMenu(menu, view, menuInfo);
-        AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) menuInfo;
-        if(view.getId() == R.id.navList) {
-            if(info.id != -1) { // only if the long pressed category isn't `Main`
-                menu.add(0, view.getId(), 0, "Rename");
-                menu.add(0, view.getId(), 0, "Delete");
-            }
-        } else if(view.getId() == R.id.mainListView) {
-            menu.add(1, view.getId(), 0, "Details");
-            menu.add(1, view.getId(), 0, "Copy"); // groupId, itemId, order, title
-            menu.add(1, view.getId(), 0, "Share");
-            menu.add(1, view.getId(), 0, "Delete");
-        }
-    }
-
-    @Override
-    public boolean onContextItemSelected(MenuItem item){
-        AdapterView.AdapterContextMenuInfo activeListItem = (AdapterView.AdapterContextMenuInfo) item.getMenuInfo();
-        if(item.getGroupId() == 0) {
-            if (item.getTitle() == "Rename") {
-                renameCategory(activeListItem.id);
-            } else if (item.getTitle() == "Delete") {
-                new AlertDialog.Builder(MainActivity.this)
-                        .setMessage("Deleting a category will also delete all the notes under it! Do you really want to do this?")
-                        .setPositiveButton(android.R.string.yes, (dialog, whichButton) -> {
-                            handler.deleteCategory(activeListItem.id);
-                            categoryCursorAdapter.swapCursor(createCategoriesCursor());
-                            if(activeCategory == activeListItem.id) { // if the deleted category is the active category, then
-                                activeCategory = -1;
-                                entryCursorAdapter.swapCursor(createEntriesCursor());
-                            }
-                            Toast.makeText(MainActivity.this, "Category Deleted", Toast.LENGTH_SHORT).show();
-                        })
-                        .setNegativeButton(android.R.string.no, null)
-                        .show();
-            }
-        } else if(item.getGroupId() == 1) {
-            if (item.getTitle() == "Details") {
-                Entry thisEntry = handler.getEntry(activeListItem.id);
-                SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("dd-MMM-yy hh:mm a");
-                new AlertDialog.Builder(this)
-                        .setMessage("Created on: " + DATE_FORMAT.format(thisEntry.createdAt) + '\n' + "Updated on: " + DATE_FORMAT.format(thisEntry.updatedAt))
-                        .show();
-            } else if (item.getTitle() == "Copy") {
-                Entry thisEntry = handler.getEntry(activeListItem.id);
-
-                if(thisEntry.isEncrypted) {
-                    Toast.makeText(MainActivity.this, "Cannot copy encrypted notes. Open the note first.", Toast.LENGTH_SHORT).show();
-                } else {
-                    ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
-                    ClipData clip;
-                    if (!thisEntry.title.isEmpty()) {
-                        clip = ClipData.newPlainText("A Note", thisEntry.title + '\n' + thisEntry.body);
-                    } else {
-                        clip = ClipData.newPlainText("A Note", thisEntry.body);
-                    }
-                    clipboard.setPrimaryClip(clip);
-                    Toast.makeText(MainActivity.this, "Note Copied", Toast.LENGTH_SHORT).show();
-                }
-            } else if (item.getTitle() == "Share") {
-                Entry thisEntry = handler.getEntry(activeListItem.id);
-
-                if(thisEntry.isEncrypted) {
-                    Toast.makeText(MainActivity.this, "Cannot share encrypted notes. Open the note first.", Toast.LENGTH_SHORT).show();
-                } else {
-                    Intent sendIntent = new Intent();
-                    sendIntent.setAction(Intent.ACTION_SEND);
-                    if (!thisEntry.title.isEmpty()) {
-                        sendIntent.putExtra(Intent.EXTRA_SUBJECT, thisEntry.title);
-                        sendIntent.putExtra(Intent.EXTRA_TEXT, thisEntry.body);
-                    } else {
-                        sendIntent.putExtra(Intent.EXTRA_TEXT, thisEntry.body);
-                    }
-                    sendIntent.setType("text/plain");
-                    startActivity(Intent.createChooser(sendIntent, "Share Note"));
-                }
-            } else if (item.getTitle() == "Delete") {
-                new AlertDialog.Builder(MainActivity.this)
-                        .setMessage("Do you really want to delete this?")
-                        .setPositiveButton(android.R.string.yes, (dialog, whichButton) -> {
-                            handler.deleteEntry(activeListItem.id);
-                            entryCursorAdapter.swapCursor(createEntriesCursor());
-                            Toast.makeText(MainActivity.this, "Note Deleted", Toast.LENGTH_SHORT).show();
-                        })
-                        .setNegativeButton(android.R.string.no, null)
-                        .show();
-            }
-        }
-        return false;
-    }
-
-    public void createNote(View view) {
-        Intent intent = new Intent(this, EditorActivity.class);
-        intent.putExtra("edit", false);
-        intent.putExtra("activeCategory", activeCategory);
-        startActivity(intent);
-    }
-
-    public void editNote(long id) {
-        // Check if note is encrypted
-        Entry entry = handler.getEntry(id);
-
-        if(entry.isEncrypted) {
-            // Check if we have a session password for THIS note
-            char[] sessionPassword = CryptoManager.INSTANCE.getSessionPassword(id);
-
-            if(sessionPassword != null) {
-                // Decrypt using session password
-                try {
-                    String decryptedBody = CryptoManager.INSTANCE.decrypt(entry.body, sessionPassword);
-                    openEditor(id, sessionPassword, decryptedBody);
-                } catch (Exception e) {
-                    // Session password is invalid (shouldn't happen, but handle it)
-                    CryptoManager.INSTANCE.clearSessionPassword(id);
-                    showPasswordDialog(id, entry);
-                }
-            } else {
-                // No session password, show dialog
-                showPasswordDialog(id, entry);
-            }
-        } else {
-            // Not encrypted, open normally
-            openEditor(id, null, null);
-        }
-    }
-
-    private void showPasswordDialog(long id, Entry entry) {
-        new PasswordVerifyDialog(this, password -> {
-            // Verify password by attempting to decrypt
-            try {
-                String decryptedBody = CryptoManager.INSTANCE.decrypt(entry.body, password);
-                // Password is correct - store session for THIS note
-                CryptoManager.INSTANCE.setSessionPassword(id, password);
-                openEditor(id, password, decryptedBody);
-            } catch (Exception e) {
-                // Wrong password
-                Toast.makeText(this, "Incorrect password. Please try again.", Toast.LENGTH_SHORT).show();
-                // Let user try again
-                showPasswordDialog(id, entry);
-            }
-            return kotlin.Unit.INSTANCE;
-        }, null).show();
-    }
-
-    private void openEditor(long id, char[] password, String decryptedBody) {
-        Intent intent = new Intent(this, EditorActivity.class);
-        intent.putExtra("edit", true);
-        intent.putExtra("id", id);
-        if(password != null) {
-            intent.putExtra("password", password);
-        }
-        if(decryptedBody != null) {
-            intent.putExtra("decryptedBody", decryptedBody);
-        }
-        startActivity(intent);
-    }
-
-    public Cursor createEntriesCursor() {
-        SQLiteDatabase db = handler.getReadableDatabase();
-        if (activeCategory == -1) {
-            return db.rawQuery("SELECT * FROM entries WHERE category_id IS NULL ORDER BY updated_at DESC", null);
-        } else {
-            return db.rawQuery("SELECT * FROM entries WHERE category_id = ? ORDER BY updated_at DESC", new String[]{ Long.toString(activeCategory) });
-        }
-    }
-
-    public Cursor createEntriesCursorFiltered(CharSequence searchString) {
-        SQLiteDatabase db = handler.getReadableDatabase();
-        // For encrypted notes, only search in title (not body)
-        // For non-encrypted notes, search both title and body
-        if (activeCategory == -1) {
-            return db.rawQuery("SELECT * FROM (SELECT * FROM entries WHERE category_id IS NULL) WHERE title LIKE ? OR (is_encrypted = 0 AND body LIKE ?) ORDER BY updated_at DESC", new String[]{ '%' + searchString.toString() + '%', '%' + searchString.toString() + '%' });
-        } else {
-            return db.rawQuery("SELECT * FROM (SELECT * FROM entries WHERE category_id = ?) WHERE title LIKE ? OR (is_encrypted = 0 AND body LIKE ?) ORDER BY updated_at DESC", new String[]{ Long.toString(activeCategory), '%' + searchString.toString() + '%', '%' + searchString.toString() + '%' });
-        }
-    }
-
-    public Cursor createCategoriesCursor() {
-        SQLiteDatabase db = handler.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM categories ORDER BY created_at ASC", null);
-        MatrixCursor matrixCursor = new MatrixCursor(new String[] { "_id", "name" });
-        matrixCursor.addRow(new Object[] { -1, "Main" });
-        MergeCursor mergeCursor = new MergeCursor(new Cursor[] { matrixCursor, cursor });
-        return mergeCursor;
-    }
-
-    public void addCategory(View view) {
-        EditText txtBox = new EditText(this);
-        txtBox.setSingleLine();
-        // we use a FrameLayout to add left and right margin to the EditText
-        FrameLayout container = new FrameLayout(this);
-        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-        float dpi = getApplicationContext().getResources().getDisplayMetrics().density;
-        params.leftMargin = (int) (20 * dpi);
-        params.rightMargin = (int) (20 * dpi);
-        txtBox.setLayoutParams(params);
-        container.addView(txtBox);
-        AlertDialog inputDialog = new AlertDialog.Builder(this)
-                .setTitle("Enter Category Name")
-                .setView(container)
-                .setPositiveButton("Add", (dialog, whichButton) -> {
-                    String name = txtBox.getText().toString();
-                    Category newCategory = new Category();
-                    newCategory.name = txtBox.getText().toString();
-                    handler.addCategory(newCategory);
-                    categoryCursorAdapter.swapCursor(createCategoriesCursor());
-                })
-                .setNegativeButton("Cancel", (dialog, whichButton) -> dialog.dismiss())
-                .create();
-        inputDialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
-        inputDialog.show();
-    }
-
-    public void renameCategory(long id) {
-        EditText txtBox = new EditText(this);
-        txtBox.setSingleLine();
-        String categoryName = handler.getCategoryName(id);
-        txtBox.setText(categoryName);
-        // we use a FrameLayout to add left and right margin to the EditText
-        FrameLayout container = new FrameLayout(this);
-        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-        float dpi = getApplicationContext().getResources().getDisplayMetrics().density;
-        params.leftMargin = (int) (20 * dpi);
-        params.rightMargin = (int) (20 * dpi);
-        txtBox.setLayoutParams(params);
-        container.addView(txtBox);
-        AlertDialog inputDialog = new AlertDialog.Builder(this)
-                .setTitle("Rename Category")
-                .setView(container)
-                .setPositiveButton("Rename", (dialog, whichButton) -> {
-                    String name = txtBox.getText().toString();
-                    Category renamedCategory = new Category();
-                    renamedCategory.name = txtBox.getText().toString();
-                    handler.updateCategory(id, renamedCategory);
-                    categoryCursorAdapter.swapCursor(createCategoriesCursor());
-                })
-                .setNegativeButton("Cancel", (dialog, whichButton) -> dialog.dismiss())
-                .create();
-        inputDialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
-        inputDialog.show();
-    }
-
-    private void changeCategory(long id) {
-        activeCategory = id;
-        entryCursorAdapter.swapCursor(createEntriesCursor());
-        DrawerLayout drawer = findViewById(R.id.drawer_layout);
-        drawer.closeDrawers();
-    }
-}
+package com.flawiddsouza.writer;
+
+import android.app.AlertDialog;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.graphics.Color;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.drawerlayout.widget.DrawerLayout;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.ContextMenu;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.Toast;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+public class MainActivity extends AppCompatActivity {
+
+    WriterDatabaseHandler handler;
+    WriterRepository repository;
+    EntryCursorAdapter entryCursorAdapter;
+    private EntryPager entryPager; // the most recently requested pager
+    private EntryPager shownPager; // the pager whose rows the list is showing
+    private boolean loadingNextPage;
+    private Cursor searchResults; // owned here, unlike pager cursors
+    private int searchGeneration; // only the latest search's results are shown
+    private CancellationSignal searchCancellation; // for the search that is running, if any
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private String pendingSearchString;
+    private static final long SEARCH_DELAY_MS = 250;
+    // Searches once typing pauses, rather than for every keystroke
+    private final Runnable pendingSearch = () -> searchEntries(pendingSearchString);
+    private ActionMode actionMode; // non-null while entries are being selected
+    // Saves from the editor can land after onResume has already refreshed the list.
+    // Only registered while the list is visible, onResume refreshes after anything written while it was hidden
+    private final Runnable entriesObserver = () -> refreshEntries(true);
+
+    private boolean searchClicked = false;
+
+    private CategoryCursorAdapter categoryCursorAdapter;
+
+    private long activeCategory = -1;
+
+    // Reused for every details dialog rather than built per call
+    private final SimpleDateFormat detailsDateFormat = new SimpleDateFormat("dd-MMM-yy hh:mm a");
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_main);
+
+        handler = WriterDatabaseHandler.getInstance(this); // init handler
+        repository = WriterRepository.getInstance(this);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+
+        RecyclerView mainListView = findViewById(R.id.mainListView);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        mainListView.setLayoutManager(layoutManager);
+        mainListView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        entryCursorAdapter = new EntryCursorAdapter(this); // filled in onResume
+        mainListView.setAdapter(entryCursorAdapter);
+
+        // Load the next page when the user nears the end of what has been loaded so far
+        // (also called after each layout, so a first page that doesn't fill the screen is followed up too)
+        mainListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if(layoutManager.findLastVisibleItemPosition() >= entryCursorAdapter.getItemCount() - EntryPager.PAGE_SIZE / 2) {
+                    loadNextEntriesPage();
+                }
+            }
+        });
+
+        // Long press starts selecting notes, the selection is acted on as one batch
+        entryCursorAdapter.setOnEntryClickListener(new EntryCursorAdapter.OnEntryClickListener() {
+            @Override
+            public void onEntryClick(long id) {
+                if(actionMode != null) {
+                    toggleSelection(id);
+                } else {
+                    editNote(id);
+                }
+            }
+
+            @Override
+            public void onEntryLongClick(long id) {
+                if(actionMode == null) {
+                    actionMode = startSupportActionMode(new EntrySelectionCallback());
+                }
+                toggleSelection(id);
+            }
+        });
+
+        // Categories Drawer
+        ListView drawerListView = findViewById(R.id.navList);
+        drawerListView.setOnItemClickListener((parent, view, position, id) -> changeCategory(id));
+        registerForContextMenu(drawerListView);
+        categoryCursorAdapter = new CategoryCursorAdapter(this, null);
+        drawerListView.setAdapter(categoryCursorAdapter);
+        refreshCategories();
+
+        DrawerLayout mDrawerLayout = findViewById(R.id.drawer_layout);
+        mDrawerLayout.addDrawerListener(new DrawerLayout.DrawerListener() {
+
+            @Override
+            public void onDrawerSlide(View drawerView, float slideOffset) {
+                //Called when a drawer's position changes.
+            }
+
+            @Override
+            public void onDrawerOpened(View drawerView) {
+                findViewById(R.id.drawer_holder).bringToFront();
+                mDrawerLayout.requestLayout();
+            }
+
+            @Override
+            public void onDrawerClosed(View drawerView) {
+                // Called when a drawer has settled in a completely closed state.
+            }
+
+            @Override
+            public void onDrawerStateChanged(int newState) {
+                // Called when the drawer motion state changes. The new state will be one of STATE_IDLE, STATE_DRAGGING or STATE_SETTLING.
+            }
+        });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu; this adds items to the action bar if it is present.
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        MenuItem search = menu.findItem(R.id.action_search);
+        MenuItem cancelSearch = menu.findItem(R.id.action_cancel_search);
+
+        if (searchClicked) {
+            search.setVisible(false);
+            cancelSearch.setVisible(true);
+        } else {
+            cancelSearch.setVisible(false);
+            search.setVisible(true);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+
+        if (id == R.id.action_settings) {
+            Intent intent = new Intent(this, SettingsActivity.class);
+            startActivity(intent);
+            return true;
+        }
+
+        if(id == R.id.action_search) {
+            searchClicked = true;
+            invalidateOptionsMenu();
+
+            getSupportActionBar().setDisplayShowTitleEnabled(false);
+
+            EditText editText = new EditText(MainActivity.this);
+
+            editText.addTextChangedListener(new TextWatcher() {
+                @Override
+                public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+
+                }
+
+                @Override
+                public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+//                    Toast.makeText(MainActivity.this, editText.getText().toString(), Toast.LENGTH_LONG).show();
+                    scheduleSearch(editText.getText().toString());
+                }
+
+                @Override
+                public void afterTextChanged(Editable editable) {
+
+                }
+            });
+
+            editText.setTextColor(Color.WHITE);
+            editText.setBackgroundColor(Color.TRANSPARENT);
+
+            getSupportActionBar().setCustomView(editText);
+            getSupportActionBar().setDisplayShowCustomEnabled(true);
+
+            editText.getLayoutParams().width = LinearLayout.LayoutParams.MATCH_PARENT;
+
+            editText.requestFocus();
+            InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
+            imm.showSoftInput(editText, InputMethodManager.SHOW_IMPLICIT);
+
+            return true;
+        }
+
+        if(id == R.id.action_cancel_search) {
+            searchClicked = false;
+            invalidateOptionsMenu();
+
+            // close soft keyboard
+            View view = this.getCurrentFocus();
+            if (view != null) {
+                InputMethodManager imm = (InputMethodManager)getSystemService(Context.INPUT_METHOD_SERVICE);
+                imm.hideSoftInputFromWindow(view.getWindowToken(), 0);
+            }
+
+            cancelSearch();
+            refreshEntries(true); // reset adapter to unfiltered query
+
+            getSupportActionBar().setDisplayShowCustomEnabled(false);
+            getSupportActionBar().setDisplayShowTitleEnabled(true);
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        repository.addEntriesObserver(entriesObserver);
+    }
+
+    @Override
+    public void onResume()
+    {
+        super.onResume();
+        entryCursorAdapter.reloadStyle(); // privacy mode may have been changed in settings
+        refreshEntries(true);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        repository.removeEntriesObserver(entriesObserver);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelSearch();
+        if(shownPager != null) {
+            repository.releasePager(shownPager);
+        }
+        closeSearchResults();
+    }
+
+    @Override
+    public void onCreateContextMenu(ContextMenu menu, View view, ContextMenu.ContextMenuInfo menuInfo)
+    {
+        super.onCreateContextMenu(menu, view, menuInfo);
+        AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) menuInfo;
+        if(view.getId() == R.id.navList) {
+            if(info.id != -1) { // only if the long pressed category isn't `Main`
+                menu.add(0, view.getId(), 0, "Rename");
+                menu.add(0, view.getId(), 0, "Delete");
+            }
+        }
+    }
+
+    @Override
+    public boolean onContextItemSelected(MenuItem item){
+        AdapterView.AdapterContextMenuInfo activeListItem = (AdapterView.AdapterContextMenuInfo) item.getMenuInfo();
+        if(item.getGroupId() == 0) {
+            if (item.getTitle() == "Rename") {
+                renameCategory(activeListItem.id);
+            } else if (item.getTitle() == "Delete") {
+                new AlertDialog.Builder(MainActivity.this)
+                        .setMessage("Deleting a category will also delete all the notes under it! Do you really want to do this?")
+                        .setPositiveButton(android.R.string.yes, (dialog, whichButton) -> {
+                            repository.deleteCategory(activeListItem.id, result -> {
+                                refreshCategories();
+                                if(activeCategory == activeListItem.id) { // if the deleted category is the active category, then
+                                    activeCategory = -1;
+                                    refreshEntries(false);
+                                }
+                                Toast.makeText(MainActivity.this, "Category Deleted", Toast.LENGTH_SHORT).show();
+                            });
+                        })
+                        .setNegativeButton(android.R.string.no, null)
+                        .show();
+            }
+        }
+        return false;
+    }
+
+    private void toggleSelection(long id) {
+        entryCursorAdapter.toggleSelected(id);
+        int count = entryCursorAdapter.getSelectedCount();
+        if(count == 0) {
+            actionMode.finish();
+            return;
+        }
+        actionMode.setTitle(count + " selected");
+        if(count <= 2) { // crossing between one and many selected changes which actions apply
+            actionMode.invalidate();
+        }
+    }
+
+    private class EntrySelectionCallback implements ActionMode.Callback {
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_entry_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            boolean single = entryCursorAdapter.getSelectedCount() == 1;
+            menu.findItem(R.id.action_details_selected).setVisible(single);
+            menu.findItem(R.id.action_copy_selected).setVisible(single);
+            menu.findItem(R.id.action_share_selected).setVisible(single);
+            return true;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = entryCursorAdapter.getSelectedIds();
+            if(ids.length == 0) {
+                return false;
+            }
+            int itemId = item.getItemId();
+            if(itemId == R.id.action_details_selected) {
+                showNoteDetails(ids[0]);
+            } else if(itemId == R.id.action_copy_selected) {
+                repository.getEntry(ids[0], MainActivity.this::copyNote);
+            } else if(itemId == R.id.action_share_selected) {
+                repository.getEntry(ids[0], MainActivity.this::shareNote);
+            } else if(itemId == R.id.action_delete_selected) {
+                deleteNotes(ids);
+            } else if(itemId == R.id.action_move_selected) {
+                moveNotes(ids);
+            } else if(itemId == R.id.action_encrypt_selected) {
+                encryptNotes(ids);
+            } else if(itemId == R.id.action_decrypt_selected) {
+                decryptNotes(ids);
+            } else {
+                return false;
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            actionMode = null;
+            entryCursorAdapter.clearSelection();
+        }
+    }
+
+    private void showNoteDetails(long id) {
+        repository.getEntry(id, thisEntry -> {
+            new AlertDialog.Builder(this)
+                    .setMessage("Created on: " + detailsDateFormat.format(new Date(thisEntry.createdAt)) + '\n' + "Updated on: " + detailsDateFormat.format(new Date(thisEntry.updatedAt)))
+                    .show();
+        });
+    }
+
+    private void deleteNotes(long[] ids) {
+        new AlertDialog.Builder(MainActivity.this)
+                .setMessage(ids.length == 1 ? "Do you really want to delete this?" : "Do you really want to delete these " + ids.length + " notes?")
+                .setPositiveButton(android.R.string.yes, (dialog, whichButton) -> {
+                    repository.deleteEntries(ids, deleted -> {
+                        for(long id : ids) {
+                            CryptoManager.INSTANCE.clearSessionPassword(id);
+                        }
+                        Toast.makeText(MainActivity.this, deleted == 1 ? "Note Deleted" : deleted + " Notes Deleted", Toast.LENGTH_SHORT).show();
+                    });
+                })
+                .setNegativeButton(android.R.string.no, null)
+                .show();
+    }
+
+    private void moveNotes(long[] ids) {
+        repository.loadCategories(categories -> {
+            if(categories == null) {
+                return;
+            }
+            if(isDestroyed()) {
+                categories.close();
+                return;
+            }
+            new AlertDialog.Builder(MainActivity.this)
+                    .setTitle("Move To")
+                    .setCursor(categories, (dialog, which) -> {
+                        categories.moveToPosition(which);
+                        long categoryId = categories.getLong(categories.getColumnIndexOrThrow("_id"));
+                        repository.moveEntries(ids, categoryId, moved -> Toast.makeText(MainActivity.this, moved == 1 ? "Note Moved" : moved + " Notes Moved", Toast.LENGTH_SHORT).show());
+                    }, "name")
+                    .setOnDismissListener(dialog -> categories.close())
+                    .show();
+        });
+    }
+
+    // Notes that are already encrypted are left as they are
+    // In vault mode they go into the vault, otherwise they get a password of their own
+    private void encryptNotes(long[] ids) {
+        repository.hasVault(hasVault -> {
+            if(hasVault != null && hasVault) {
+                VaultUnlockDialog.unlockThen(this, repository, () -> encryptNotes(ids, null), null);
+                return;
+            }
+            new PasswordSetupDialog(this, password -> {
+                encryptNotes(ids, password);
+                return kotlin.Unit.INSTANCE;
+            }, null, "Encrypt Notes", "Enter a password to encrypt the selected notes. You'll need this password to view them later.").show();
+        });
+    }
+
+    // A null password encrypts with the vault
+    private void encryptNotes(long[] ids, char[] password) {
+        CancellationSignal cancellation = new CancellationSignal();
+        CryptoProgress progress = new CryptoProgress(this, "Encrypting notes…", cancellation);
+        repository.encryptEntries(ids, password, cancellation, encrypted -> {
+            progress.dismiss();
+            if(encrypted == null || (encrypted.isEmpty() && cancellation.isCanceled())) {
+                return;
+            }
+            if(password != null) {
+                for(long id : encrypted) {
+                    CryptoManager.INSTANCE.setSessionPassword(id, password);
+                }
+            }
+            Toast.makeText(MainActivity.this, encrypted.size() == 1 ? "Note Encrypted" : encrypted.size() + " Notes Encrypted", Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    // Notes that are not encrypted, or were encrypted with a different password, are left as they are
+    private void decryptNotes(long[] ids) {
+        new PasswordVerifyDialog(this, password -> {
+            CancellationSignal cancellation = new CancellationSignal();
+            CryptoProgress progress = new CryptoProgress(this, "Decrypting notes…", cancellation);
+            repository.decryptEntries(ids, password, cancellation, decrypted -> {
+                progress.dismiss();
+                if(decrypted == null || (decrypted.isEmpty() && cancellation.isCanceled())) {
+                    return;
+                }
+                for(long id : decrypted) {
+                    CryptoManager.INSTANCE.clearSessionPassword(id);
+                }
+                Toast.makeText(MainActivity.this, decrypted.size() == 1 ? "Note Decrypted" : decrypted.size() + " Notes Decrypted", Toast.LENGTH_SHORT).show();
+            });
+            return kotlin.Unit.INSTANCE;
+        }, null, "Decrypt Notes", "Enter the password of the selected notes to remove their encryption.").show();
+    }
+
+    private void copyNote(Entry thisEntry) {
+        if(thisEntry.isEncrypted) {
+            Toast.makeText(MainActivity.this, "Cannot copy encrypted notes. Open the note first.", Toast.LENGTH_SHORT).show();
+        } else {
+            ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
+            ClipData clip;
+            if (!thisEntry.title.isEmpty()) {
+                clip = ClipData.newPlainText("A Note", thisEntry.title + '\n' + thisEntry.body);
+            } else {
+                clip = ClipData.newPlainText("A Note", thisEntry.body);
+            }
+            clipboard.setPrimaryClip(clip);
+            Toast.makeText(MainActivity.this, "Note Copied", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void shareNote(Entry thisEntry) {
+        if(thisEntry.isEncrypted) {
+            Toast.makeText(MainActivity.this, "Cannot share encrypted notes. Open the note first.", Toast.LENGTH_SHORT).show();
+        } else {
+            Intent sendIntent = new Intent();
+            sendIntent.setAction(Intent.ACTION_SEND);
+            if (!thisEntry.title.isEmpty()) {
+                sendIntent.putExtra(Intent.EXTRA_SUBJECT, thisEntry.title);
+                sendIntent.putExtra(Intent.EXTRA_TEXT, thisEntry.body);
+            } else {
+                sendIntent.putExtra(Intent.EXTRA_TEXT, thisEntry.body);
+            }
+            sendIntent.setType("text/plain");
+            startActivity(Intent.createChooser(sendIntent, "Share Note"));
+        }
+    }
+
+    public void createNote(View view) {
+        Intent intent = new Intent(this, EditorActivity.class);
+        intent.putExtra("edit", false);
+        intent.putExtra("activeCategory", activeCategory);
+        startActivity(intent);
+    }
+
+    // Large notes come back without their body, so opening one never reads it whole
+    public void editNote(long id) {
+        repository.getEntryForEditing(id, entry -> openNote(id, entry));
+    }
+
+    private void openNote(long id, Entry entry) {
+        // Check if note is encrypted
+        if(entry.isEncrypted) {
+            if(entry.wrappedKey != null) {
+                // Vault note, opens with the vault instead of a password of its own
+                VaultUnlockDialog.unlockThen(this, repository, () -> unlockNote(id, entry, null, false), null);
+                return;
+            }
+
+            // Check if we have a session password for THIS note
+            char[] sessionPassword = CryptoManager.INSTANCE.getSessionPassword(id);
+
+            if(sessionPassword != null) {
+                // Decrypt using session password
+                unlockNote(id, entry, sessionPassword, true);
+            } else {
+                // No session password, show dialog
+                showPasswordDialog(id, entry);
+            }
+        } else {
+            // Not encrypted, open normally
+            openEditor(id, null, null);
+        }
+    }
+
+    private void showPasswordDialog(long id, Entry entry) {
+        new PasswordVerifyDialog(this, password -> {
+            // Verify password by attempting to decrypt
+            unlockNote(id, entry, password, false);
+            return kotlin.Unit.INSTANCE;
+        }, null).show();
+    }
+
+    // Decrypts in the background, the note opens once that's done unless the progress dialog was cancelled
+    // password is null for vault notes
+    private void unlockNote(long id, Entry entry, char[] password, boolean fromSession) {
+        CancellationSignal cancellation = new CancellationSignal();
+        CryptoProgress progress = new CryptoProgress(this, "Unlocking note…", cancellation);
+        repository.decryptBody(entry, password, cancellation, decryptedBody -> {
+            progress.dismiss();
+            if(cancellation.isCanceled() || isDestroyed()) {
+                return;
+            }
+            if(decryptedBody == null && password == null) {
+                Toast.makeText(this, "Failed to open encrypted note", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            if(decryptedBody == null) {
+                if(fromSession) {
+                    // Session password is invalid (shouldn't happen, but handle it)
+                    CryptoManager.INSTANCE.clearSessionPassword(id);
+                } else {
+                    // Wrong password
+                    Toast.makeText(this, "Incorrect password. Please try again.", Toast.LENGTH_SHORT).show();
+                }
+                // Let user try again
+                showPasswordDialog(id, entry);
+                return;
+            }
+            // Password is correct - store session for THIS note
+            if(password != null) {
+                CryptoManager.INSTANCE.setSessionPassword(id, password);
+            }
+            UnlockedNotesIndex.put(id, entry.title, decryptedBody);
+            openEditor(id, password, decryptedBody);
+        });
+    }
+
+    private void openEditor(long id, char[] password, String decryptedBody) {
+        Intent intent = new Intent(this, EditorActivity.class);
+        intent.putExtra("edit", true);
+        intent.putExtra("id", id);
+        if(password != null) {
+            intent.putExtra("password", password);
+        }
+        if(decryptedBody != null) {
+            intent.putExtra("decryptedBody", decryptedBody);
+        }
+        startActivity(intent);
+    }
+
+    // Reloads the active category from its first page
+    // keepLoaded reloads as many rows as were already loaded, so the scroll position survives
+    private void refreshEntries(boolean keepLoaded) {
+        int minimumRows = keepLoaded && shownPager != null ? shownPager.getLoadedCount() : 0;
+        EntryPager pager = repository.newPager(activeCategory);
+        entryPager = pager;
+        repository.loadEntries(pager, minimumRows, entryCursorAdapter.getShown(), update -> {
+            if(update == null || pager != entryPager || isDestroyed()) { // superseded by a newer refresh
+                repository.releasePager(pager);
+                return;
+            }
+            cancelRunningSearch(); // it would otherwise replace this
+            entryCursorAdapter.swap(update);
+            closeSearchResults();
+            if(shownPager != null) {
+                repository.releasePager(shownPager);
+            }
+            shownPager = pager;
+        });
+    }
+
+    private void loadNextEntriesPage() {
+        // Search results replace the pager's cursor, and those aren't paged
+        if(loadingNextPage || shownPager == null || shownPager != entryPager || shownPager.isExhausted()
+                || entryCursorAdapter.getCursor() != shownPager.getCursor()) {
+            return;
+        }
+        loadingNextPage = true;
+        EntryPager pager = shownPager;
+        EntryListUpdate shown = entryCursorAdapter.getShown();
+        repository.loadNextEntriesPage(pager, shown, update -> {
+            loadingNextPage = false;
+            if(update != null && pager == shownPager && entryCursorAdapter.getShown() == shown) {
+                entryCursorAdapter.swap(update);
+            }
+        });
+    }
+
+    private void scheduleSearch(String searchString) {
+        pendingSearchString = searchString;
+        searchHandler.removeCallbacks(pendingSearch);
+        searchHandler.postDelayed(pendingSearch, SEARCH_DELAY_MS);
+    }
+
+    // Each search cancels the one before it, so a slow query for an old keystroke stops instead of
+    // holding up the reader threads, and only results with the latest generation are ever shown
+    private void searchEntries(String searchString) {
+        if(!WriterDatabaseHandler.isSearchable(searchString)) {
+            // a cleared search box shows the paged list again, the pager loads more as it scrolls
+            cancelRunningSearch();
+            refreshEntries(true);
+            return;
+        }
+        cancelRunningSearch();
+        int generation = searchGeneration;
+        CancellationSignal cancellation = new CancellationSignal();
+        searchCancellation = cancellation;
+        repository.searchEntries(activeCategory, searchString, entryCursorAdapter.getShown(), cancellation, update -> {
+            if(cancellation == searchCancellation) {
+                searchCancellation = null;
+            }
+            if(update == null) { // cancelled
+                return;
+            }
+            if(generation != searchGeneration || isDestroyed()) { // superseded by a newer search or refresh
+                update.cursor.close();
+                return;
+            }
+            entryCursorAdapter.swap(update);
+            closeSearchResults();
+            searchResults = update.cursor;
+        });
+    }
+
+    // Drops the search waiting for typing to pause and cancels the one running
+    private void cancelSearch() {
+        searchHandler.removeCallbacks(pendingSearch);
+        cancelRunningSearch();
+    }
+
+    private void cancelRunningSearch() {
+        searchGeneration++;
+        if(searchCancellation != null) {
+            searchCancellation.cancel();
+            searchCancellation = null;
+        }
+    }
+
+    private void closeSearchResults() {
+        if(searchResults != null) {
+            searchResults.close();
+            searchResults = null;
+        }
+    }
+
+    private void refreshCategories() {
+        repository.loadCategories(cursor -> {
+            if(isDestroyed()) {
+                if(cursor != null) {
+                    cursor.close();
+                }
+                return;
+            }
+            Cursor oldCursor = categoryCursorAdapter.swapCursor(cursor);
+            if(oldCursor != null) {
+                oldCursor.close();
+            }
+        });
+    }
+
+    public void addCategory(View view) {
+        EditText txtBox = new EditText(this);
+        txtBox.setSingleLine();
+        // we use a FrameLayout to add left and right margin to the EditText
+        FrameLayout container = new FrameLayout(this);
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        float dpi = getApplicationContext().getResources().getDisplayMetrics().density;
+        params.leftMargin = (int) (20 * dpi);
+        params.rightMargin = (int) (20 * dpi);
+        txtBox.setLayoutParams(params);
+        container.addView(txtBox);
+        AlertDialog inputDialog = new AlertDialog.Builder(this)
+                .setTitle("Enter Category Name")
+                .setView(container)
+                .setPositiveButton("Add", (dialog, whichButton) -> {
+                    String name = txtBox.getText().toString();
+                    Category newCategory = new Category();
+                    newCategory.name = txtBox.getText().toString();
+                    repository.addCategory(newCategory, result -> refreshCategories());
+                })
+                .setNegativeButton("Cancel", (dialog, whichButton) -> dialog.dismiss())
+                .create();
+        inputDialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
+        inputDialog.show();
+    }
+
+    public void renameCategory(long id) {
+        repository.getCategoryName(id, categoryName -> showRenameCategoryDialog(id, categoryName));
+    }
+
+    private void showRenameCategoryDialog(long id, String categoryName) {
+        EditText txtBox = new EditText(this);
+        txtBox.setSingleLine();
+        txtBox.setText(categoryName);
+        // we use a FrameLayout to add left and right margin to the EditText
+        FrameLayout container = new FrameLayout(this);
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        float dpi = getApplicationContext().getResources().getDisplayMetrics().density;
+        params.leftMargin = (int) (20 * dpi);
+        params.rightMargin = (int) (20 * dpi);
+        txtBox.setLayoutParams(params);
+        container.addView(txtBox);
+        AlertDialog inputDialog = new AlertDialog.Builder(this)
+                .setTitle("Rename Category")
+                .setView(container)
+                .setPositiveButton("Rename", (dialog, whichButton) -> {
+                    String name = txtBox.getText().toString();
+                    Category renamedCategory = new Category();
+                    renamedCategory.name = txtBox.getText().toString();
+                    repository.updateCategory(id, renamedCategory, result -> refreshCategories());
+                })
+                .setNegativeButton("Cancel", (dialog, whichButton) -> dialog.dismiss())
+                .create();
+        inputDialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
+        inputDialog.show();
+    }
+
+    private void changeCategory(long id) {
+        activeCategory = id;
+        refreshEntries(false);
+        DrawerLayout drawer = findViewById(R.id.drawer_layout);
+        drawer.closeDrawers();
+    }
+}
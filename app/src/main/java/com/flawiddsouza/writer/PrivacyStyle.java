@@ -0,0 +1,209 @@
+package com.flawiddsouza.writer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.RenderEffect;
+import android.graphics.Shader;
+import android.os.Build;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.ChecksSdkIntAtLeast;
+import androidx.annotation.RequiresApi;
+import androidx.preference.PreferenceManager;
+
+// How privacy mode draws text and overlays, worked out once from the settings.
+// Instances never change. get() hands out a cached one that is only rebuilt when a privacy mode
+// preference changes, so the list, the editor and the settings preview can apply it as often as
+// they like without reading preferences.
+// On API 31+ opacity and shadow are a RenderEffect on the view holding the text, which the GPU
+// fades and blurs, and the text keeps its normal colors. Older versions get text colors and a shadow layer,
+// and so does editable text on every version, see applyToEditableText.
+public final class PrivacyStyle {
+
+    private static final String PREFERENCE_PREFIX = "Privacy_Mode_";
+
+    private static PrivacyStyle sInstance;
+    // SharedPreferences only keeps weak references to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final boolean enabled;
+    // Text colors and shadow layer for text that isn't drawn under the render effect
+    public final int primaryColor; // the first line of every list row, the editor's title and body
+    public final int secondaryColor; // the body under a title in the list
+    public final float shadowRadius;
+    public final float shadowOffset;
+    public final int shadowColor;
+    public final int scanlinesIntensity; // -1 when the overlay is off
+    public final int chromaticIntensity;
+    private final Object renderEffect; // a RenderEffect, typed loosely so older versions never load the class
+
+    public static synchronized PrivacyStyle get(Context context) {
+        if (sInstance == null) {
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+            sListener = (prefs, key) -> {
+                // key is null when the preferences were cleared
+                if(key == null || key.startsWith(PREFERENCE_PREFIX)) {
+                    synchronized (PrivacyStyle.class) {
+                        sInstance = load(prefs);
+                    }
+                }
+            };
+            preferences.registerOnSharedPreferenceChangeListener(sListener);
+            sInstance = load(preferences);
+        }
+        return sInstance;
+    }
+
+    private static PrivacyStyle load(SharedPreferences preferences) {
+        return create(
+            preferences.getBoolean("Privacy_Mode_Boolean", false),
+            preferences.getBoolean("Privacy_Mode_Opacity_Enabled", false),
+            preferences.getInt("Privacy_Mode_Opacity_Value", 128),
+            preferences.getBoolean("Privacy_Mode_Shadow_Enabled", false),
+            preferences.getInt("Privacy_Mode_Shadow_Value", 128),
+            preferences.getBoolean("Privacy_Mode_Scanlines_Enabled", false),
+            preferences.getInt("Privacy_Mode_Scanlines_Value", 50),
+            preferences.getBoolean("Privacy_Mode_Chromatic_Enabled", false),
+            preferences.getInt("Privacy_Mode_Chromatic_Value", 30)
+        );
+    }
+
+    // Takes the same settings as SettingsPrivacyModeActivity stores, so it can preview values that aren't saved yet
+    public static PrivacyStyle create(boolean enabled,
+                                      boolean opacityEnabled, int opacityIntensity,
+                                      boolean shadowEnabled, int shadowIntensity,
+                                      boolean scanlinesEnabled, int scanlinesIntensity,
+                                      boolean chromaticEnabled, int chromaticIntensity) {
+        if(!enabled) {
+            return new PrivacyStyle(false, 255, 0, 0, 0, -1, -1, null);
+        }
+
+        // Calculate text and shadow alpha
+        int textAlpha = 255;
+        int shadowAlpha = 0;
+
+        if (opacityEnabled && !shadowEnabled) {
+            // Only opacity: reduce text transparency
+            textAlpha = 255 - opacityIntensity;
+        } else if (shadowEnabled && !opacityEnabled) {
+            // Only shadow: transparent text with shadow
+            textAlpha = 0;
+            shadowAlpha = 60 + (int)(shadowIntensity / 2.8f); // 60-150 range
+        } else if (opacityEnabled && shadowEnabled) {
+            // Both: text is transparent, opacity controls shadow transparency
+            textAlpha = 0;
+            int baseShadowAlpha = 60 + (int)(shadowIntensity / 2.8f);
+            shadowAlpha = (int)(baseShadowAlpha * (255 - opacityIntensity) / 255.0f);
+        }
+
+        float shadowRadius = 0;
+        float shadowOffset = 0;
+        if (shadowEnabled && shadowAlpha > 0) {
+            shadowRadius = 2 + (shadowIntensity / 40f); // 2-8 range (more blur)
+            shadowOffset = 0.5f + (shadowIntensity / 200f); // 0.5-1.8 range (less offset)
+        } else {
+            shadowAlpha = 0;
+        }
+
+        Object renderEffect = null;
+        if(isRenderEffectSupported()) {
+            renderEffect = createRenderEffect(textAlpha, shadowAlpha, shadowRadius, shadowOffset);
+        }
+
+        return new PrivacyStyle(true, textAlpha, shadowAlpha, shadowRadius, shadowOffset,
+            scanlinesEnabled ? scanlinesIntensity : -1,
+            chromaticEnabled ? chromaticIntensity : -1,
+            renderEffect);
+    }
+
+    private PrivacyStyle(boolean enabled, int textAlpha, int shadowAlpha, float shadowRadius, float shadowOffset,
+                         int scanlinesIntensity, int chromaticIntensity, Object renderEffect) {
+        this.enabled = enabled;
+        primaryColor = Color.argb(textAlpha, 0, 0, 0);
+        secondaryColor = Color.argb(textAlpha, 117, 117, 117); // #757575 with alpha
+        this.shadowRadius = shadowRadius;
+        this.shadowOffset = shadowOffset;
+        shadowColor = shadowAlpha > 0 ? Color.argb(shadowAlpha, 0, 0, 0) : Color.TRANSPARENT;
+        this.scanlinesIntensity = scanlinesIntensity;
+        this.chromaticIntensity = chromaticIntensity;
+        this.renderEffect = renderEffect;
+    }
+
+    @ChecksSdkIntAtLeast(api = Build.VERSION_CODES.S)
+    public static boolean isRenderEffectSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.S;
+    }
+
+    // The same fade and shadow as the text colors and shadow layer would give, null when there is neither
+    @RequiresApi(Build.VERSION_CODES.S)
+    private static RenderEffect createRenderEffect(int textAlpha, int shadowAlpha, float shadowRadius, float shadowOffset) {
+        if(shadowAlpha == 0) {
+            if(textAlpha == 255) {
+                return null;
+            }
+            ColorMatrix fade = new ColorMatrix();
+            fade.setScale(1, 1, 1, textAlpha / 255f);
+            return RenderEffect.createColorFilterEffect(new ColorMatrixColorFilter(fade));
+        }
+
+        // Only a blurred, offset black copy of the text shows
+        ColorMatrix shadow = new ColorMatrix(new float[] {
+                0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0,
+                0, 0, 0, shadowAlpha / 255f, 0,
+        });
+        RenderEffect effect = RenderEffect.createColorFilterEffect(new ColorMatrixColorFilter(shadow));
+        effect = RenderEffect.createBlurEffect(shadowRadius, shadowRadius, effect, Shader.TileMode.DECAL);
+        return RenderEffect.createOffsetEffect(shadowOffset, shadowOffset, effect);
+    }
+
+    // Styles the text views, and on API 31+ puts the render effect on container, which holds them.
+    // Everything container draws is faded with the text, so it should hold nothing else. secondary may be null.
+    public void applyToText(View container, TextView primary, TextView secondary) {
+        if(isRenderEffectSupported()) {
+            styleText(primary, secondary, Color.BLACK, Color.rgb(117, 117, 117), 0, 0, Color.TRANSPARENT);
+            container.setRenderEffect((RenderEffect) renderEffect);
+        } else {
+            styleText(primary, secondary, primaryColor, secondaryColor, shadowRadius, shadowOffset, shadowColor);
+        }
+    }
+
+    // An EditText draws its hint, cursor and selection in the same view as its text, and a render effect
+    // would fade them too, so editable text always gets the text colors and shadow layer, which only touch the text
+    public void applyToEditableText(TextView text) {
+        styleText(text, null, primaryColor, secondaryColor, shadowRadius, shadowOffset, shadowColor);
+    }
+
+    private static void styleText(TextView primary, TextView secondary, int primaryColor, int secondaryColor,
+                                  float shadowRadius, float shadowOffset, int shadowColor) {
+        primary.setTextColor(primaryColor);
+        primary.setShadowLayer(shadowRadius, shadowOffset, shadowOffset, shadowColor);
+        if(secondary != null) {
+            secondary.setTextColor(secondaryColor);
+            secondary.setShadowLayer(shadowRadius, shadowOffset, shadowOffset, shadowColor);
+        }
+    }
+
+    public void applyToOverlays(View scanlinesOverlay, View chromaticOverlay) {
+        // Apply scanlines if enabled
+        if(scanlinesIntensity >= 0) {
+            scanlinesOverlay.setBackground(new ScanlinesDrawable(scanlinesIntensity));
+            scanlinesOverlay.setVisibility(View.VISIBLE);
+        } else {
+            scanlinesOverlay.setVisibility(View.GONE);
+        }
+
+        // Apply chromatic aberration if enabled
+        if(chromaticIntensity >= 0) {
+            chromaticOverlay.setBackground(new ChromaticAberrationDrawable(chromaticIntensity));
+            chromaticOverlay.setVisibility(View.VISIBLE);
+        } else {
+            chromaticOverlay.setVisibility(View.GONE);
+        }
+    }
+}
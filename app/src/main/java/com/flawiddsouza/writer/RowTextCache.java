@@ -0,0 +1,75 @@
+package com.flawiddsouza.writer;
+
+import android.util.LruCache;
+
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+// Lays out the text of list rows on a background thread with PrecomputedTextCompat, so measuring
+// a row while scrolling doesn't shape long titles and previews on the main thread.
+// Laid out text is kept per entry id and slot, and reused while the entry's updated_ms stays the same,
+// so rows scrolled back into view or rebound for a selection change are laid out only once.
+// A slot is one of the TextViews in a row layout, all views in a slot have the same text metrics.
+class RowTextCache {
+
+    private static final int MAX_SIZE = 300;
+    // One thread, like AppCompat's own text future executor, so rows are laid out in the order they're bound
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    private static final class Prepared {
+        final long updatedMs;
+        final PrecomputedTextCompat text;
+
+        Prepared(long updatedMs, PrecomputedTextCompat text) {
+            this.updatedMs = updatedMs;
+            this.text = text;
+        }
+    }
+
+    private final int slots;
+    private final PrecomputedTextCompat.Params[] params; // read from the first view bound in each slot
+    private final LruCache<Long, Prepared> cache = new LruCache<>(MAX_SIZE);
+
+    RowTextCache(int slots) {
+        this.slots = slots;
+        params = new PrecomputedTextCompat.Params[slots];
+    }
+
+    // Shows the laid out text for this version of the entry if it is cached, returns false if it isn't
+    boolean setCachedText(AppCompatTextView view, int slot, long id, long updatedMs) {
+        view.setTextFuture(null); // drops text still being laid out for what this view showed before
+        Prepared prepared = cache.get(id * slots + slot);
+        if(prepared == null || prepared.updatedMs != updatedMs) {
+            return false;
+        }
+        TextViewCompat.setPrecomputedText(view, prepared.text);
+        return true;
+    }
+
+    // Lays text out in the background and caches it, the view only waits for it if it is measured before it is ready
+    void prepareText(AppCompatTextView view, int slot, long id, long updatedMs, String text) {
+        if(params[slot] == null) {
+            params[slot] = TextViewCompat.getTextMetricsParams(view);
+        }
+        PrecomputedTextCompat.Params slotParams = params[slot];
+        long key = id * slots + slot;
+        FutureTask<PrecomputedTextCompat> task = new FutureTask<>(() -> {
+            PrecomputedTextCompat laidOut = PrecomputedTextCompat.create(text, slotParams);
+            cache.put(key, new Prepared(updatedMs, laidOut));
+            return laidOut;
+        });
+        executor.execute(task);
+        view.setTextFuture(task);
+    }
+
+    // Shows text that isn't worth laying out ahead, like the encrypted placeholder
+    static void setPlainText(AppCompatTextView view, CharSequence text) {
+        view.setTextFuture(null);
+        view.setText(text);
+    }
+}
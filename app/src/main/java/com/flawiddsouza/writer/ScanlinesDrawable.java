@@ -1,55 +1,66 @@
-package com.flawiddsouza.writer;
-
-import android.graphics.Canvas;
-import android.graphics.ColorFilter;
-import android.graphics.Paint;
-import android.graphics.PixelFormat;
-import android.graphics.drawable.Drawable;
-
-public class ScanlinesDrawable extends Drawable {
-    private Paint paint;
-    private int lineSpacing;
-
-    public ScanlinesDrawable(int density) {
-        paint = new Paint();
-        paint.setStyle(Paint.Style.STROKE);
-        paint.setStrokeWidth(1);
-        paint.setAntiAlias(false); // Sharp pixels for CRT effect
-
-        // Fixed moderate opacity for visibility
-        paint.setColor(0x30000000); // ~18% opacity black
-
-        // Density 0-100 controls line spacing (lower = more spacing, higher = more lines)
-        // 0: Every 10 pixels (very sparse)
-        // 50: Every 4 pixels (medium)
-        // 100: Every 2 pixels (very dense)
-        lineSpacing = 10 - (density * 8 / 100); // 10 to 2 pixels
-        if (lineSpacing < 2) lineSpacing = 2; // Minimum 2 pixels spacing
-    }
-
-    @Override
-    public void draw(Canvas canvas) {
-        int height = getBounds().height();
-        int width = getBounds().width();
-
-        // Draw 1-pixel horizontal lines every 'lineSpacing' pixels
-        for (int y = 0; y < height; y += lineSpacing) {
-            canvas.drawLine(0, y, width, y, paint);
-        }
-    }
-
-    @Override
-    public void setAlpha(int alpha) {
-        paint.setAlpha(alpha);
-    }
-
-    @Override
-    public void setColorFilter(ColorFilter colorFilter) {
-        paint.setColorFilter(colorFilter);
-    }
-
-    @Override
-    public int getOpacity() {
-        return PixelFormat.TRANSLUCENT;
-    }
-}
+package com.flawiddsouza.writer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+// Horizontal lines are one pixel of a 1 x lineSpacing tile repeated over the bounds,
+// so drawing is a single rect whatever the size. Tiles are cached per spacing and shared
+// by every instance, the list rows, the editor and the settings preview.
+public class ScanlinesDrawable extends Drawable {
+    private static final int LINE_COLOR = 0x30000000; // Fixed moderate opacity for visibility, ~18% opacity black
+    private static final SparseArray<BitmapShader> tiles = new SparseArray<>();
+
+    private Paint paint;
+
+    public ScanlinesDrawable(int density) {
+        // Density 0-100 controls line spacing (lower = more spacing, higher = more lines)
+        // 0: Every 10 pixels (very sparse)
+        // 50: Every 4 pixels (medium)
+        // 100: Every 2 pixels (very dense)
+        int lineSpacing = 10 - (density * 8 / 100); // 10 to 2 pixels
+        if (lineSpacing < 2) lineSpacing = 2; // Minimum 2 pixels spacing
+
+        paint = new Paint();
+        paint.setAntiAlias(false); // Sharp pixels for CRT effect
+        paint.setShader(getTile(lineSpacing));
+    }
+
+    private static synchronized BitmapShader getTile(int lineSpacing) {
+        BitmapShader tile = tiles.get(lineSpacing);
+        if (tile == null) {
+            Bitmap bitmap = Bitmap.createBitmap(1, lineSpacing, Bitmap.Config.ARGB_8888);
+            bitmap.setPixel(0, 0, LINE_COLOR);
+            tile = new BitmapShader(bitmap, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+            tiles.put(lineSpacing, tile);
+        }
+        return tile;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        // Lines stay every 'lineSpacing' pixels from the canvas origin, like when they were drawn one by one
+        canvas.drawRect(getBounds(), paint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha); // scales the lines' own opacity
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
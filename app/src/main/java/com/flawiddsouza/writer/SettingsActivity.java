@@ -1,14 +1,21 @@
 package com.flawiddsouza.writer;
 
+import android.app.AlertDialog;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.NavUtils;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.CheckBox;
+import android.widget.Toast;
 
 public class SettingsActivity extends AppCompatActivity {
 
+    private WriterRepository repository;
+    private CheckBox vaultModeCheckbox;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -32,6 +39,56 @@ public class SettingsActivity extends AppCompatActivity {
                 startActivity(new Intent(SettingsActivity.this, SettingsPrivacyModeActivity.class));
             }
         });
+
+        repository = WriterRepository.getInstance(this);
+        vaultModeCheckbox = (CheckBox) findViewById(R.id.vault_mode_checkbox);
+        repository.hasVault(hasVault -> vaultModeCheckbox.setChecked(hasVault != null && hasVault));
+
+        findViewById(R.id.settings_vault_mode).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if(vaultModeCheckbox.isChecked()) {
+                    turnOffVaultMode();
+                } else {
+                    turnOnVaultMode();
+                }
+            }
+        });
+    }
+
+    // Notes encrypted from now on go into the vault, and notes with a password of their own move into it when they're opened
+    private void turnOnVaultMode() {
+        new PasswordSetupDialog(this, password -> {
+            CancellationSignal cancellation = new CancellationSignal();
+            CryptoProgress progress = new CryptoProgress(this, "Creating vault…", cancellation);
+            repository.createVault(password, cancellation, created -> {
+                progress.dismiss();
+                CryptoManager.INSTANCE.clearPassword(password);
+                if(created != null && created) {
+                    vaultModeCheckbox.setChecked(true);
+                    Toast.makeText(this, "Vault mode on", Toast.LENGTH_SHORT).show();
+                }
+            });
+            return kotlin.Unit.INSTANCE;
+        }, null, "Set Vault Password", "Enter a password for the vault. Notes you encrypt will open with it, and it's asked only once per session.").show();
+    }
+
+    private void turnOffVaultMode() {
+        new AlertDialog.Builder(this)
+                .setTitle("Turn Off Vault Mode?")
+                .setMessage("Notes you encrypt will get a password of their own again.")
+                .setPositiveButton(android.R.string.yes, (dialog, which) -> {
+                    repository.deleteVault(deleted -> {
+                        if(deleted != null && deleted) {
+                            CryptoManager.INSTANCE.lockVault();
+                            vaultModeCheckbox.setChecked(false);
+                        } else {
+                            Toast.makeText(this, "Decrypt the notes in the vault first", Toast.LENGTH_LONG).show();
+                        }
+                    });
+                })
+                .setNegativeButton(android.R.string.no, null)
+                .show();
     }
 
     @Override
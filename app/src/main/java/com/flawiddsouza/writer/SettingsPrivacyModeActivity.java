@@ -1,17 +1,20 @@
 package com.flawiddsouza.writer;
 
 import android.content.SharedPreferences;
-import android.graphics.Color;
 import android.os.Bundle;
 import androidx.preference.PreferenceManager;
 import androidx.core.app.NavUtils;
 import androidx.appcompat.app.AppCompatActivity;
+import android.view.Choreographer;
 import android.view.MenuItem;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class SettingsPrivacyModeActivity extends AppCompatActivity {
 
     private TextView privacyModeTextSample;
@@ -26,6 +29,14 @@ public class SettingsPrivacyModeActivity extends AppCompatActivity {
     private CheckBox shadowOnlyCheckbox;
     private CheckBox scanlinesCheckbox;
     private CheckBox chromaticCheckbox;
+    // Changes not written to preferences yet, keyed by preference name
+    private final Map<String, Object> pendingEdits = new HashMap<>();
+    private PrivacyStyle previewStyle; // the style the preview last showed
+    private boolean previewScheduled;
+    private final Choreographer.FrameCallback previewFrameCallback = frameTimeNanos -> {
+        previewScheduled = false;
+        updatePreview();
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,124 +76,56 @@ public class SettingsPrivacyModeActivity extends AppCompatActivity {
         updatePreview();
 
         // Main enable/disable checkbox listener
-        privacyModeCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-            @Override
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putBoolean("Privacy_Mode_Boolean", isChecked);
-                editor.apply();
-            }
-        });
+        privacyModeCheckbox.setOnCheckedChangeListener(checkboxListener("Privacy_Mode_Boolean", false));
 
-        // Opacity checkbox listener
-        opacityCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-            @Override
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putBoolean("Privacy_Mode_Opacity_Enabled", isChecked);
-                editor.apply();
-                updatePreview();
-            }
-        });
+        // Opacity and shadow only listeners
+        opacityCheckbox.setOnCheckedChangeListener(checkboxListener("Privacy_Mode_Opacity_Enabled", true));
+        shadowOnlyCheckbox.setOnCheckedChangeListener(checkboxListener("Privacy_Mode_Shadow_Enabled", true));
+        opacityMeter.setOnSeekBarChangeListener(meterListener("Privacy_Mode_Opacity_Value"));
+        shadowMeter.setOnSeekBarChangeListener(meterListener("Privacy_Mode_Shadow_Value"));
 
-        // Shadow only checkbox listener
-        shadowOnlyCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-            @Override
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putBoolean("Privacy_Mode_Shadow_Enabled", isChecked);
-                editor.apply();
-                updatePreview();
-            }
-        });
-
-        // Opacity SeekBar listener
-        opacityMeter.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-            @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putInt("Privacy_Mode_Opacity_Value", progress);
-                editor.apply();
-                updatePreview();
-            }
+        // Scanlines listeners
+        scanlinesCheckbox.setOnCheckedChangeListener(checkboxListener("Privacy_Mode_Scanlines_Enabled", true));
+        scanlinesMeter.setOnSeekBarChangeListener(meterListener("Privacy_Mode_Scanlines_Value"));
 
-            @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {
-            }
-
-            @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {
-            }
-        });
-
-        // Shadow SeekBar listener
-        shadowMeter.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-            @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putInt("Privacy_Mode_Shadow_Value", progress);
-                editor.apply();
-                updatePreview();
-            }
-
-            @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {
-            }
-
-            @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {
-            }
-        });
-
-        // Scanlines checkbox listener
-        scanlinesCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-            @Override
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putBoolean("Privacy_Mode_Scanlines_Enabled", isChecked);
-                editor.apply();
-                updatePreview();
-            }
-        });
-
-        // Scanlines SeekBar listener
-        scanlinesMeter.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-            @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putInt("Privacy_Mode_Scanlines_Value", progress);
-                editor.apply();
-                updatePreview();
-            }
+        // Chromatic aberration listeners
+        chromaticCheckbox.setOnCheckedChangeListener(checkboxListener("Privacy_Mode_Chromatic_Enabled", true));
+        chromaticMeter.setOnSeekBarChangeListener(meterListener("Privacy_Mode_Chromatic_Value"));
+    }
 
-            @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {
-            }
+    @Override
+    protected void onPause() {
+        super.onPause();
+        commitEdits(); // covers meters moved without a touch, e.g. with a keyboard
+    }
 
-            @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {
-            }
-        });
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Choreographer.getInstance().removeFrameCallback(previewFrameCallback);
+    }
 
-        // Chromatic aberration checkbox listener
-        chromaticCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+    // A checkbox is one change, so it is written straight away
+    private CompoundButton.OnCheckedChangeListener checkboxListener(String key, boolean affectsPreview) {
+        return new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putBoolean("Privacy_Mode_Chromatic_Enabled", isChecked);
-                editor.apply();
-                updatePreview();
+                pendingEdits.put(key, isChecked);
+                commitEdits();
+                if(affectsPreview) {
+                    schedulePreview();
+                }
             }
-        });
+        };
+    }
 
-        // Chromatic aberration SeekBar listener
-        chromaticMeter.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+    // Dragging a meter only changes the value in memory, it is written once the drag ends
+    private SeekBar.OnSeekBarChangeListener meterListener(String key) {
+        return new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putInt("Privacy_Mode_Chromatic_Value", progress);
-                editor.apply();
-                updatePreview();
+                pendingEdits.put(key, progress);
+                schedulePreview();
             }
 
             @Override
@@ -191,72 +134,50 @@ public class SettingsPrivacyModeActivity extends AppCompatActivity {
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                commitEdits();
             }
-        });
+        };
     }
 
-    private void updatePreview() {
-        int opacityIntensity = opacityMeter.getProgress();
-        int shadowIntensity = shadowMeter.getProgress();
-        int scanlinesIntensity = scanlinesMeter.getProgress();
-        int chromaticIntensity = chromaticMeter.getProgress();
-        boolean opacityEnabled = opacityCheckbox.isChecked();
-        boolean shadowEnabled = shadowOnlyCheckbox.isChecked();
-        boolean scanlinesEnabled = scanlinesCheckbox.isChecked();
-        boolean chromaticEnabled = chromaticCheckbox.isChecked();
-
-        // Reset to defaults first
-        privacyModeTextSample.setTextColor(Color.BLACK);
-        privacyModeTextSample.setShadowLayer(0, 0, 0, Color.TRANSPARENT);
-        previewScanlinesOverlay.setVisibility(android.view.View.GONE);
-        previewChromaticOverlay.setVisibility(android.view.View.GONE);
-
-        // Calculate text and shadow alpha
-        int textAlpha = 255;
-        int shadowAlpha = 0;
-
-        if (opacityEnabled && !shadowEnabled) {
-            // Only opacity: reduce text transparency
-            textAlpha = 255 - opacityIntensity;
-        } else if (shadowEnabled && !opacityEnabled) {
-            // Only shadow: transparent text with shadow
-            textAlpha = 0;
-            shadowAlpha = 60 + (int)(shadowIntensity / 2.8f); // 60-150 range
-        } else if (opacityEnabled && shadowEnabled) {
-            // Both: text is transparent, opacity controls shadow transparency
-            textAlpha = 0;
-            int baseShadowAlpha = 60 + (int)(shadowIntensity / 2.8f);
-            shadowAlpha = (int)(baseShadowAlpha * (255 - opacityIntensity) / 255.0f);
+    // Writes all pending edits in a single preferences file write
+    private void commitEdits() {
+        if(pendingEdits.isEmpty()) {
+            return;
         }
-
-        // Apply shadow if enabled
-        if (shadowEnabled && shadowAlpha > 0) {
-            float shadowRadius = 2 + (shadowIntensity / 40f); // 2-8 range (more blur)
-            float shadowOffset = 0.5f + (shadowIntensity / 200f); // 0.5-1.8 range (less offset)
-
-            privacyModeTextSample.setShadowLayer(
-                shadowRadius,
-                shadowOffset,
-                shadowOffset,
-                Color.argb(shadowAlpha, 0, 0, 0)
-            );
+        SharedPreferences.Editor editor = preferences.edit();
+        for(Map.Entry<String, Object> edit : pendingEdits.entrySet()) {
+            if(edit.getValue() instanceof Boolean) {
+                editor.putBoolean(edit.getKey(), (Boolean) edit.getValue());
+            } else {
+                editor.putInt(edit.getKey(), (Integer) edit.getValue());
+            }
         }
+        editor.apply();
+        pendingEdits.clear();
+    }
 
-        privacyModeTextSample.setTextColor(Color.argb(textAlpha, 0, 0, 0));
-
-        // Apply scanlines if enabled
-        if (scanlinesEnabled) {
-            ScanlinesDrawable scanlinesDrawable = new ScanlinesDrawable(scanlinesIntensity);
-            previewScanlinesOverlay.setBackground(scanlinesDrawable);
-            previewScanlinesOverlay.setVisibility(android.view.View.VISIBLE);
+    // However many changes come in during a frame, the preview is redrawn once, on the next frame
+    private void schedulePreview() {
+        if(!previewScheduled) {
+            previewScheduled = true;
+            Choreographer.getInstance().postFrameCallback(previewFrameCallback);
         }
+    }
 
-        // Apply chromatic aberration if enabled
-        if (chromaticEnabled) {
-            ChromaticAberrationDrawable chromaticDrawable = new ChromaticAberrationDrawable(chromaticIntensity);
-            previewChromaticOverlay.setBackground(chromaticDrawable);
-            previewChromaticOverlay.setVisibility(android.view.View.VISIBLE);
+    private void updatePreview() {
+        // Built from the controls rather than the preferences, the preview shows even with privacy mode off
+        PrivacyStyle style = PrivacyStyle.create(true,
+            opacityCheckbox.isChecked(), opacityMeter.getProgress(),
+            shadowOnlyCheckbox.isChecked(), shadowMeter.getProgress(),
+            scanlinesCheckbox.isChecked(), scanlinesMeter.getProgress(),
+            chromaticCheckbox.isChecked(), chromaticMeter.getProgress());
+        style.applyToText(privacyModeTextSample, privacyModeTextSample, null);
+        // Text changes don't need new overlay drawables
+        if(previewStyle == null || style.scanlinesIntensity != previewStyle.scanlinesIntensity
+                || style.chromaticIntensity != previewStyle.chromaticIntensity) {
+            style.applyToOverlays(previewScanlinesOverlay, previewChromaticOverlay);
         }
+        previewStyle = style;
     }
 
     @Override
@@ -0,0 +1,140 @@
+package com.flawiddsouza.writer;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+// Word index of the encrypted notes unlocked this session, so search finds them by their body too.
+// The full-text index only has their titles, the database never sees their plain text. This index is
+// built from the text as it is decrypted or saved, lives only in memory and is emptied with the
+// session passwords in CryptoManager, so a search never decrypts anything.
+// Words are split and folded the way the unicode61 tokenizer of entries_fts does it, and searched as prefixes.
+class UnlockedNotesIndex {
+
+    // Notes are tokenized here, in the order they were unlocked or saved
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    // word -> ids of the notes it is in, sorted so a prefix is a range
+    private static final TreeMap<String, Set<Long>> postings = new TreeMap<>();
+    private static final Map<Long, Set<String>> noteWords = new HashMap<>();
+    // The latest put of each note still being tokenized, a note removed meanwhile isn't added when it finishes
+    private static final Map<Long, Object> pending = new HashMap<>();
+
+    private UnlockedNotesIndex() {
+    }
+
+    // Indexes the decrypted text of a note, replacing what was indexed for it before
+    static void put(long id, String title, String body) {
+        Object ticket = new Object();
+        synchronized (UnlockedNotesIndex.class) {
+            pending.put(id, ticket);
+        }
+        executor.execute(() -> {
+            Set<String> words = new HashSet<>();
+            addWords(title, words);
+            addWords(body, words);
+            synchronized (UnlockedNotesIndex.class) {
+                if(pending.get(id) != ticket) {
+                    return; // removed or put again since
+                }
+                pending.remove(id);
+                removeWords(id);
+                noteWords.put(id, words);
+                for(String word : words) {
+                    Set<Long> ids = postings.get(word);
+                    if(ids == null) {
+                        ids = new HashSet<>();
+                        postings.put(word, ids);
+                    }
+                    ids.add(id);
+                }
+            }
+        });
+    }
+
+    static synchronized void remove(long id) {
+        pending.remove(id);
+        removeWords(id);
+    }
+
+    static synchronized void clear() {
+        pending.clear();
+        postings.clear();
+        noteWords.clear();
+    }
+
+    // Ids of the indexed notes that have every word of searchString as a prefix of one of their words,
+    // empty when nothing is indexed or searchString has nothing searchable in it
+    static synchronized Set<Long> search(String searchString) {
+        Set<Long> found = new HashSet<>();
+        if(noteWords.isEmpty()) {
+            return found;
+        }
+        Set<String> words = new HashSet<>();
+        addWords(searchString, words);
+        boolean first = true;
+        for(String word : words) {
+            Set<Long> matches = new HashSet<>();
+            for(Set<Long> ids : postings.subMap(word, word + Character.MAX_VALUE).values()) {
+                matches.addAll(ids);
+            }
+            if(first) {
+                found.addAll(matches);
+                first = false;
+            } else {
+                found.retainAll(matches);
+            }
+            if(found.isEmpty()) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    private static void removeWords(long id) {
+        Set<String> words = noteWords.remove(id);
+        if(words == null) {
+            return;
+        }
+        for(String word : words) {
+            Set<Long> ids = postings.get(word);
+            if(ids != null) {
+                ids.remove(id);
+                if(ids.isEmpty()) {
+                    postings.remove(word);
+                }
+            }
+        }
+    }
+
+    // Lowercased and without diacritics, split at everything that isn't a letter or digit
+    private static void addWords(String text, Set<String> words) {
+        if(text == null || text.isEmpty()) {
+            return;
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKD).toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i < folded.length(); ) {
+            int codePoint = folded.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if(Character.getType(codePoint) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if(Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+            } else if(word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if(word.length() > 0) {
+            words.add(word.toString());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.flawiddsouza.writer;
+
+import android.app.Activity;
+import android.os.CancellationSignal;
+import android.widget.Toast;
+
+// Asks for the vault password while the vault is locked and unlocks it in the background, see CryptoManager.
+// The vault stays unlocked for the rest of the session, so vault notes open without asking again.
+class VaultUnlockDialog {
+
+    private VaultUnlockDialog() {
+    }
+
+    // Runs onUnlocked once the vault is unlocked, right away if it already is.
+    // A wrong password asks again, onCancel (may be null) runs if the user gives up.
+    static void unlockThen(Activity activity, WriterRepository repository, Runnable onUnlocked, Runnable onCancel) {
+        if(CryptoManager.INSTANCE.isVaultUnlocked()) {
+            onUnlocked.run();
+            return;
+        }
+        new PasswordVerifyDialog(activity, password -> {
+            CancellationSignal cancellation = new CancellationSignal();
+            CryptoProgress progress = new CryptoProgress(activity, "Unlocking vault…", cancellation);
+            repository.unlockVault(password, cancellation, unlocked -> {
+                progress.dismiss();
+                CryptoManager.INSTANCE.clearPassword(password);
+                if(cancellation.isCanceled() || activity.isDestroyed()) {
+                    if(unlocked != null && unlocked) {
+                        CryptoManager.INSTANCE.lockVault(); // cancelled after the key was derived
+                    }
+                    if(onCancel != null) {
+                        onCancel.run();
+                    }
+                    return;
+                }
+                if(unlocked == null || !unlocked) {
+                    Toast.makeText(activity, "Incorrect password. Please try again.", Toast.LENGTH_SHORT).show();
+                    unlockThen(activity, repository, onUnlocked, onCancel);
+                    return;
+                }
+                onUnlocked.run();
+            });
+            return kotlin.Unit.INSTANCE;
+        }, () -> {
+            if(onCancel != null) {
+                onCancel.run();
+            }
+            return kotlin.Unit.INSTANCE;
+        }, "Unlock Vault", "Enter the vault password. Vault notes then open without asking again this session.").show();
+    }
+}
@@ -1,239 +1,1146 @@
-package com.flawiddsouza.writer;
-
-import android.content.ContentValues;
-import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.util.Log;
-
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-
-import static android.content.ContentValues.TAG;
-
-public class WriterDatabaseHandler extends SQLiteOpenHelper {
-
-    private static WriterDatabaseHandler sInstance;
-
-    // Database Info
-    private static final String DATABASE_NAME = "Writer"; // (BuildConfig.DEBUG) ? "/sdcard/writer.db" : "Writer";
-    private static final int DATABASE_VERSION = 3;
-    private static final String TABLE_ENTRIES = "entries";
-    private static final String KEY_ENTRY_TITLE = "title";
-    private static final String KEY_ENTRY_BODY = "body";
-    private static final String TABLE_CATEGORIES = "categories";
-    private static final String KEY_CATEGORY_NAME = "name";
-
-    public static synchronized WriterDatabaseHandler getInstance(Context context) {
-        // Use the application context, which will ensure that you
-        // don't accidentally leak an Activity's context.
-        // See this article for more information: http://bit.ly/6LRzfx
-        if (sInstance == null) {
-            sInstance = new WriterDatabaseHandler(context.getApplicationContext());
-        }
-        return sInstance;
-    }
-
-    public WriterDatabaseHandler(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
-    }
-
-    // Called when the database connection is being configured.
-    // Configure database settings for things like foreign key support, write-ahead logging, etc.
-    @Override
-    public void onConfigure(SQLiteDatabase db) {
-        super.onConfigure(db);
-        db.setLocale(Locale.getDefault());
-    }
-
-    // These is where we need to write create table statements.
-    // This is called when database is created.
-    @Override
-    public void onCreate(SQLiteDatabase db) {
-        db.beginTransaction();
-        try {
-            db.execSQL("CREATE TABLE entries ( _id INTEGER PRIMARY KEY, title TEXT NOT NULL, body TEXT NOT NULL, created_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')), updated_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')) );");
-            db.execSQL("CREATE TABLE categories ( _id INTEGER PRIMARY KEY, name TEXT NOT NULL, created_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')), updated_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')) );");
-            db.execSQL("ALTER TABLE entries ADD COLUMN category_id INTEGER;");
-            db.execSQL("ALTER TABLE entries ADD COLUMN is_encrypted INTEGER DEFAULT 0;");
-            db.setTransactionSuccessful();
-        }
-        finally {
-            db.endTransaction();
-        }
-    }
-
-    // This method is called when database is upgraded like
-    // modifying the table structure,
-    // adding constraints to database, etc
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if(oldVersion < 2) {
-            db.execSQL("CREATE TABLE categories ( _id INTEGER PRIMARY KEY, name TEXT NOT NULL, created_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')), updated_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')) );");
-            db.execSQL("ALTER TABLE entries ADD COLUMN category_id INTEGER;");
-        }
-        if(oldVersion < 3) {
-            db.execSQL("ALTER TABLE entries ADD COLUMN is_encrypted INTEGER DEFAULT 0;");
-        }
-    }
-
-    //-----------------------Entries--------------------------
-
-    // Insert a entry into the database
-    public long addEntry(Entry entry) {
-        long newId = -1;
-        if(!entry.title.isEmpty() || !entry.body.isEmpty()) {
-            SQLiteDatabase db = getWritableDatabase();
-            db.beginTransaction();
-            try {
-                ContentValues values = new ContentValues();
-                values.put(KEY_ENTRY_TITLE, entry.title);
-                values.put(KEY_ENTRY_BODY, entry.body);
-                if(entry.categoryId != -1) { // if not main category
-                    values.put("category_id", entry.categoryId);
-                }
-                values.put("is_encrypted", entry.isEncrypted ? 1 : 0);
-                newId = db.insertOrThrow(TABLE_ENTRIES, null, values);
-                db.setTransactionSuccessful();
-            } catch (Exception e) {
-                Log.d(TAG, "Error while trying to add entry to database");
-            } finally {
-                db.endTransaction();
-            }
-        }
-        return newId;
-    }
-
-    // get entry for given id from database
-    public Entry getEntry(long id) {
-        Entry thisEntry = new Entry();
-        SQLiteDatabase db = getReadableDatabase();
-        try {
-            Cursor cursor = db.rawQuery("SELECT * FROM entries WHERE _id=?", new String[]{Long.toString(id)});
-            if(cursor.getCount() == 1) {
-                cursor.moveToFirst(); // select first row
-                thisEntry.title = cursor.getString(cursor.getColumnIndexOrThrow(KEY_ENTRY_TITLE));
-                thisEntry.body = cursor.getString(cursor.getColumnIndexOrThrow(KEY_ENTRY_BODY));
-                thisEntry.categoryId = cursor.getLong(cursor.getColumnIndexOrThrow("category_id"));
-                thisEntry.isEncrypted = cursor.getInt(cursor.getColumnIndexOrThrow("is_encrypted")) == 1;
-                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                thisEntry.createdAt = format.parse(cursor.getString(cursor.getColumnIndexOrThrow("created_at")));
-                thisEntry.updatedAt = format.parse(cursor.getString(cursor.getColumnIndexOrThrow("updated_at")));
-            }
-        } catch (Exception e) {
-            Log.e("cursor error", e.getLocalizedMessage());
-        }
-        return thisEntry;
-    }
-
-    public void updateEntry(long id, Entry entry) {
-        if(!entry.title.isEmpty() || !entry.body.isEmpty()) {
-            SQLiteDatabase db = getWritableDatabase();
-            db.beginTransaction();
-            try {
-                ContentValues values = new ContentValues();
-                values.put(KEY_ENTRY_TITLE, entry.title);
-                values.put(KEY_ENTRY_BODY, entry.body);
-                values.put("is_encrypted", entry.isEncrypted ? 1 : 0);
-                values.put("updated_at", getDateTime());
-                db.update(TABLE_ENTRIES, values, "_id=?", new String[] { Long.toString(id) });
-                db.setTransactionSuccessful();
-            } catch (Exception e) {
-                Log.d(TAG, "Error while trying to update entry from database");
-            } finally {
-                db.endTransaction();
-            }
-        }
-    }
-
-    // Delete entry from the database
-    public void deleteEntry(long id) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
-        try {
-            db.delete(TABLE_ENTRIES, "_id=?", new String[] { Long.toString(id) });
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.d(TAG, "Error while trying to delete entry from database");
-        } finally {
-            db.endTransaction();
-        }
-    }
-
-    //-----------------------Categories--------------------------
-
-    public String getCategoryName(long id) {
-        SQLiteDatabase db = getReadableDatabase();
-        try {
-            Cursor cursor = db.rawQuery("SELECT * FROM categories WHERE _id=?", new String[]{Long.toString(id)});
-            if(cursor.getCount() == 1) {
-                cursor.moveToFirst(); // select first row
-                return cursor.getString(cursor.getColumnIndexOrThrow(KEY_CATEGORY_NAME));
-            }
-        } catch (Exception e) {
-            Log.e("cursor error", e.getLocalizedMessage());
-        }
-        return null;
-    }
-
-    public void addCategory(Category category) {
-        if(!category.name.isEmpty()) {
-            SQLiteDatabase db = getWritableDatabase();
-            db.beginTransaction();
-            try {
-                ContentValues values = new ContentValues();
-                values.put(KEY_CATEGORY_NAME, category.name);
-                db.insertOrThrow(TABLE_CATEGORIES, null, values);
-                db.setTransactionSuccessful();
-            } catch (Exception e) {
-                Log.d(TAG, "Error while trying to add category to database");
-            } finally {
-                db.endTransaction();
-            }
-        }
-    }
-
-    public void updateCategory(long id, Category category) {
-        if(!category.name.isEmpty()) {
-            SQLiteDatabase db = getWritableDatabase();
-            db.beginTransaction();
-            try {
-                ContentValues values = new ContentValues();
-                values.put(KEY_CATEGORY_NAME, category.name);
-                values.put("updated_at", getDateTime());
-                db.update(TABLE_CATEGORIES, values, "_id=?", new String[] { Long.toString(id) });
-                db.setTransactionSuccessful();
-            } catch (Exception e) {
-                Log.d(TAG, "Error while trying to update category from database");
-            } finally {
-                db.endTransaction();
-            }
-        }
-    }
-
-    public void deleteCategory(long id) {
-        SQLiteDatabase db = getWritableDatabase();
-        db.beginTransaction();
-        try {
-            db.delete(TABLE_CATEGORIES, "_id=?", new String[] { Long.toString(id) });
-            db.delete(TABLE_ENTRIES, "category_id=?", new String[] { Long.toString(id) });
-            db.setTransactionSuccessful();
-        } catch (Exception e) {
-            Log.d(TAG, "Error while trying to delete category from database");
-        } finally {
-            db.endTransaction();
-        }
-    }
-
-    //-----------------------Other--------------------------
-
-    private String getDateTime() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-        Date date = new Date();
-        return dateFormat.format(date);
-    }
+package com.flawiddsouza.writer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static android.content.ContentValues.TAG;
+
+public class WriterDatabaseHandler extends SQLiteOpenHelper implements EditJournal.Notes {
+
+    private static WriterDatabaseHandler sInstance;
+
+    // Database Info
+    private static final String DATABASE_NAME = "Writer"; // (BuildConfig.DEBUG) ? "/sdcard/writer.db" : "Writer";
+    private static final int DATABASE_VERSION = 12;
+    private static final String TABLE_ENTRIES = "entries";
+    private static final String TABLE_ENTRIES_FTS = "entries_fts";
+    private static final String KEY_ENTRY_TITLE = "title";
+    private static final String KEY_ENTRY_BODY = "body";
+    private static final int PREVIEW_LENGTH = 200;
+    // The body, or for encrypted entries their envelope, which is in body as Base64 text until the envelope migration reaches them
+    private static final String BODY_OR_ENVELOPE_COLUMN = "COALESCE(encrypted_body, body)";
+    // The only columns the entry list needs, so list queries never read full bodies
+    // updated_ms is appended by listColumns, since its expression depends on the timestamp migration
+    private static final String LIST_COLUMNS = "_id, title, preview, has_title, has_body, is_encrypted";
+    private static final String TABLE_CATEGORIES = "categories";
+    private static final String KEY_CATEGORY_NAME = "name";
+    // Idle reader connections are closed after this long on API 29+, WAL keeps one per concurrent reader
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30_000;
+
+    // Entries converted per transaction by the background timestamp migration
+    private static final int TIMESTAMP_BATCH_SIZE = 500;
+    private static final String MIGRATION_TIMESTAMPS = "timestamps";
+    // Entries converted per transaction by the background envelope migration, fewer since each one is a whole body
+    private static final int ENVELOPE_BATCH_SIZE = 50;
+    private static final String MIGRATION_ENVELOPES = "envelopes";
+
+    // Unencrypted bodies longer than this many characters are edited in windows instead of loaded whole
+    public static final int LARGE_BODY_CHARS = 256 * 1024;
+
+    // About 4 MB of note text
+    private static final int ENTRY_CACHE_CHARS = 2 * 1024 * 1024;
+
+    // Ids per statement in bulk operations, below SQLite's limit of 999 bound parameters
+    private static final int BULK_CHUNK_SIZE = 500;
+
+    // Precompiled write statements, indexed by the STATEMENT_ constants
+    private static final int STATEMENT_INSERT_ENTRY = 0;
+    private static final int STATEMENT_UPDATE_ENTRY = 1;
+    private static final int STATEMENT_DELETE_ENTRY = 2;
+    private static final int STATEMENT_INSERT_CATEGORY = 3;
+    private static final int STATEMENT_UPDATE_CATEGORY = 4;
+    private static final int STATEMENT_DELETE_CATEGORY = 5;
+    private static final int STATEMENT_DELETE_CATEGORY_ENTRIES = 6;
+    private static final int STATEMENT_SPLICE_BODY = 7;
+    private static final int STATEMENT_UPDATE_PREVIEW = 8;
+    private static final String[] STATEMENT_SQL = {
+            "INSERT INTO entries (title, body, preview, has_title, has_body, is_encrypted, updated_ms, wrapped_key, encrypted_body, body_length, category_id, created_ms) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            "UPDATE entries SET title = ?, body = ?, preview = ?, has_title = ?, has_body = ?, is_encrypted = ?, updated_ms = ?, wrapped_key = ?, encrypted_body = ?, body_length = ? WHERE _id = ?",
+            "DELETE FROM entries WHERE _id = ?",
+            "INSERT INTO categories (name, created_ms, updated_ms) VALUES (?, ?, ?)",
+            "UPDATE categories SET name = ?, updated_ms = ? WHERE _id = ?",
+            "DELETE FROM categories WHERE _id = ?",
+            "DELETE FROM entries WHERE category_id = ?",
+            "UPDATE entries SET title = ?, has_title = ?, body = substr(body, 1, ?) || ? || substr(body, ?), " +
+                    "body_length = body_length - max(0, min(?, body_length - ?)) + ?, updated_ms = ? WHERE _id = ?",
+            "UPDATE entries SET preview = ?, has_body = body != '' WHERE _id = ?",
+    };
+
+    // Recently read entries, so opening a note again (or copying, sharing, showing its details) skips SQLite.
+    // Bounded by characters of title and body (two bytes of an encrypted body count as one), the handler's write methods remove whatever they change.
+    private final LruCache<Long, Entry> entryCache = new LruCache<Long, Entry>(ENTRY_CACHE_CHARS) {
+        @Override
+        protected int sizeOf(Long id, Entry entry) {
+            int encryptedLength = entry.encryptedBody != null ? entry.encryptedBody.length / 2 : 0;
+            return entry.title.length() + entry.body.length() + encryptedLength + 1;
+        }
+    };
+    // Bumped on every invalidation, guarded by entryCache.
+    // A read that overlapped a write must not put what it read back into the cache.
+    private long entryCacheGeneration;
+
+    private final SQLiteStatement[] statements = new SQLiteStatement[STATEMENT_SQL.length];
+    private SQLiteDatabase statementsDb;
+    // True while entries upgraded from the TEXT timestamps are still being converted in the background
+    private volatile boolean timestampsPending;
+
+    public static synchronized WriterDatabaseHandler getInstance(Context context) {
+        // Use the application context, which will ensure that you
+        // don't accidentally leak an Activity's context.
+        // See this article for more information: http://bit.ly/6LRzfx
+        if (sInstance == null) {
+            sInstance = new WriterDatabaseHandler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public WriterDatabaseHandler(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        SQLiteDatabase.OpenParams.Builder openParams = new SQLiteDatabase.OpenParams.Builder();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // Keeps NORMAL on connections the pool reopens after idling, see onConfigure
+            openParams.setSynchronousMode("NORMAL");
+            openParams.setIdleConnectionTimeout(IDLE_CONNECTION_TIMEOUT_MS);
+        }
+        setOpenParams(openParams.build());
+    }
+
+    // Called when the database connection is being configured.
+    // Configure database settings for things like foreign key support, write-ahead logging, etc.
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.setLocale(Locale.getDefault());
+        // Readers get their own connections and no longer wait for writers
+        db.enableWriteAheadLogging();
+        // In WAL mode NORMAL is still safe against corruption, it only skips an fsync per commit.
+        // Set after enabling WAL, which resets it, and on every API level since the open param only exists from API 29.
+        // On API 28 a connection the pool reopened would be back to the platform's mode, so idle connections stay open there.
+        db.execSQL("PRAGMA synchronous=NORMAL;");
+    }
+
+    // These is where we need to write create table statements.
+    // This is called when database is created.
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("CREATE TABLE entries ( _id INTEGER PRIMARY KEY, title TEXT NOT NULL, body TEXT NOT NULL, created_ms INTEGER, updated_ms INTEGER );");
+            db.execSQL("CREATE TABLE categories ( _id INTEGER PRIMARY KEY, name TEXT NOT NULL, created_ms INTEGER, updated_ms INTEGER );");
+            db.execSQL("ALTER TABLE entries ADD COLUMN category_id INTEGER;");
+            db.execSQL("ALTER TABLE entries ADD COLUMN is_encrypted INTEGER DEFAULT 0;");
+            addPreviewColumns(db);
+            createSearchIndex(db);
+            createListIndexes(db);
+            createMigrationsTable(db);
+            createVault(db);
+            addEncryptedBodyColumn(db);
+            addBodyLengthColumn(db);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    // This method is called when database is upgraded like
+    // modifying the table structure,
+    // adding constraints to database, etc
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if(oldVersion < 2) {
+            db.execSQL("CREATE TABLE categories ( _id INTEGER PRIMARY KEY, name TEXT NOT NULL, created_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')), updated_at TIMESTAMP DEFAULT (datetime(CURRENT_TIMESTAMP, 'localtime')) );");
+            db.execSQL("ALTER TABLE entries ADD COLUMN category_id INTEGER;");
+        }
+        if(oldVersion < 3) {
+            db.execSQL("ALTER TABLE entries ADD COLUMN is_encrypted INTEGER DEFAULT 0;");
+        }
+        if(oldVersion < 4) {
+            createSearchIndex(db);
+            db.execSQL("INSERT INTO entries_fts(docid, title, body) SELECT _id, title, CASE WHEN is_encrypted = 1 THEN '' ELSE body END FROM entries;");
+        }
+        if(oldVersion < 5) {
+            db.execSQL("CREATE INDEX entries_category_updated_at ON entries(category_id, updated_at);");
+            db.execSQL("CREATE INDEX categories_created_at ON categories(created_at);");
+        }
+        if(oldVersion < 6) {
+            addPreviewColumns(db);
+            db.execSQL("UPDATE entries SET " +
+                    "preview = CASE WHEN is_encrypted = 1 THEN '' ELSE substr(replace(replace(body, char(10), ''), char(13), ''), 1, " + PREVIEW_LENGTH + ") END, " +
+                    "has_title = title != '', " +
+                    "has_body = body != '';");
+        }
+        if(oldVersion < 7) {
+            // Timestamps move from localtime TEXT to UTC epoch millis. Categories are few and converted here,
+            // entries are converted in batches in the background by migrateTimestampBatch,
+            // and until that finishes queries fall back to converting the TEXT column
+            db.execSQL("ALTER TABLE entries ADD COLUMN created_ms INTEGER;");
+            db.execSQL("ALTER TABLE entries ADD COLUMN updated_ms INTEGER;");
+            db.execSQL("ALTER TABLE categories ADD COLUMN created_ms INTEGER;");
+            db.execSQL("ALTER TABLE categories ADD COLUMN updated_ms INTEGER;");
+            db.execSQL("UPDATE categories SET created_ms = " + legacyMillis("created_at") + ", updated_ms = " + legacyMillis("updated_at") + ";");
+            db.execSQL("DROP INDEX IF EXISTS categories_created_at;");
+            db.execSQL("CREATE INDEX categories_created_ms ON categories(created_ms);");
+            createMigrationsTable(db);
+            db.execSQL("INSERT INTO migrations (name, last_id) VALUES ('" + MIGRATION_TIMESTAMPS + "', 0);");
+        }
+        if(oldVersion < 8) {
+            createVault(db);
+        }
+        if(oldVersion < 9) {
+            // Encrypted bodies move from Base64 text to binary envelopes.
+            // They are converted in batches in the background by migrateEnvelopeBatch,
+            // and until that finishes readEnvelope converts what it reads in the old format.
+            addEncryptedBodyColumn(db);
+            db.execSQL("INSERT INTO migrations (name, last_id) VALUES ('" + MIGRATION_ENVELOPES + "', 0);");
+        }
+        if(oldVersion < 10) {
+            // The list index gains the list columns so pages are read from the index alone.
+            // While the timestamp migration runs the old updated_at index stays, migrateTimestampBatch builds this one when it finishes
+            if(DatabaseUtils.queryNumEntries(db, "migrations", "name = ?", new String[] { MIGRATION_TIMESTAMPS }) == 0) {
+                db.execSQL("DROP INDEX IF EXISTS entries_category_updated_ms;");
+                createEntriesListIndex(db);
+            }
+        }
+        if(oldVersion < 11) {
+            addBodyLengthColumn(db);
+            // Reads every body once, so opening a note never has to
+            db.execSQL("UPDATE entries SET body_length = length(body);");
+        }
+        if(oldVersion < 12 && oldVersion >= 8) {
+            // wrapped_key and check_value hold binary keys since version 9 but were created as TEXT.
+            // SQLite can't change a column's type, so both tables are rebuilt with it declared BLOB.
+            // Before version 8 they are created by createVault above and are BLOB already
+            rebuildWithBlobColumn(db, TABLE_ENTRIES, "wrapped_key");
+            rebuildWithBlobColumn(db, "vault", "check_value");
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        timestampsPending = DatabaseUtils.queryNumEntries(db, "migrations", "name = ?", new String[] { MIGRATION_TIMESTAMPS }) > 0;
+    }
+
+    // Background data migrations that are still in progress, with the last entry id each one has reached
+    private void createMigrationsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE migrations ( name TEXT PRIMARY KEY, last_id INTEGER NOT NULL );");
+    }
+
+    // Vault mode, see CryptoManager: vault holds the check value of the vault password while vault mode is on,
+    // and vault notes keep their wrapped data key next to them
+    private void createVault(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN wrapped_key BLOB;");
+        db.execSQL("CREATE TABLE vault ( _id INTEGER PRIMARY KEY CHECK (_id = 1), check_value BLOB NOT NULL );");
+    }
+
+    // Recreates table from its own CREATE statement with column declared BLOB instead of TEXT and copies the rows over,
+    // keeping their ids. Dropping the old table drops its indexes and triggers, so those are recreated from their saved SQL.
+    // The columns each install has depend on the versions it was upgraded through, which is why nothing here lists them
+    private void rebuildWithBlobColumn(SQLiteDatabase db, String table, String column) {
+        String tableSql = DatabaseUtils.stringForQuery(db, "SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] { table });
+        List<String> dependentSql = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type IN ('index', 'trigger') AND tbl_name = ? AND sql IS NOT NULL", new String[] { table })) {
+            while(cursor.moveToNext()) {
+                dependentSql.add(cursor.getString(0));
+            }
+        }
+        String rebuilt = table + "_rebuilt";
+        db.execSQL(tableSql
+                .replaceFirst("^CREATE TABLE " + table + "\\b", "CREATE TABLE " + rebuilt)
+                .replaceFirst("\\b" + column + " TEXT\\b", column + " BLOB"));
+        db.execSQL("INSERT INTO " + rebuilt + " SELECT * FROM " + table + ";");
+        db.execSQL("DROP TABLE " + table + ";");
+        db.execSQL("ALTER TABLE " + rebuilt + " RENAME TO " + table + ";");
+        for(String sql : dependentSql) {
+            db.execSQL(sql);
+        }
+    }
+
+    // Encrypted notes keep an empty body and their envelope in encrypted_body, see CryptoManager
+    private void addEncryptedBodyColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN encrypted_body BLOB;");
+    }
+
+    // The body's length in characters as SQLite counts them, kept by every write that changes the body.
+    // length(body) would have to read and decode the whole body, which is what getEntryForEditing avoids for large notes.
+    private void addBodyLengthColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN body_length INTEGER NOT NULL DEFAULT 0;");
+    }
+
+    // SQL converting a legacy localtime TEXT timestamp column to UTC epoch millis
+    private static String legacyMillis(String column) {
+        return "(CAST(strftime('%s', " + column + ", 'utc') AS INTEGER) * 1000)";
+    }
+
+    // A short single-line excerpt of the body plus flags for which fields are filled in,
+    // kept up to date on every write so the list can render rows without the full body
+    private void addPreviewColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE entries ADD COLUMN preview TEXT NOT NULL DEFAULT '';");
+        db.execSQL("ALTER TABLE entries ADD COLUMN has_title INTEGER NOT NULL DEFAULT 0;");
+        db.execSQL("ALTER TABLE entries ADD COLUMN has_body INTEGER NOT NULL DEFAULT 0;");
+    }
+
+    // Indexes for the list screens: entries are always read per category newest first
+    // (category_id IS NULL for "Main" uses the same index), and categories oldest first
+    private void createListIndexes(SQLiteDatabase db) {
+        createEntriesListIndex(db);
+        db.execSQL("CREATE INDEX categories_created_ms ON categories(created_ms);");
+    }
+
+    // Covers getEntriesPage: the (updated_ms, _id) page key comes first so the index still supplies the order,
+    // then the rest of LIST_COLUMNS, so a page is read without touching the table rows that hold the bodies
+    private void createEntriesListIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX entries_category_updated_ms ON entries(category_id, updated_ms, _id, title, preview, has_title, has_body, is_encrypted);");
+    }
+
+    // Full-text index over entries, kept in sync by triggers so every write path is covered.
+    // FTS5 isn't compiled into the platform SQLite, so this uses FTS4 with prefix indexes.
+    // Bodies of encrypted entries are never indexed, only their titles.
+    private void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE entries_fts USING fts4(title, body, tokenize=unicode61, prefix=\"2,3\");");
+        db.execSQL("CREATE TRIGGER entries_fts_after_insert AFTER INSERT ON entries BEGIN " +
+                "INSERT INTO entries_fts(docid, title, body) VALUES (new._id, new.title, CASE WHEN new.is_encrypted = 1 THEN '' ELSE new.body END); " +
+                "END;");
+        db.execSQL("CREATE TRIGGER entries_fts_after_update AFTER UPDATE OF title, body, is_encrypted ON entries BEGIN " +
+                "UPDATE entries_fts SET title = new.title, body = CASE WHEN new.is_encrypted = 1 THEN '' ELSE new.body END WHERE docid = old._id; " +
+                "END;");
+        db.execSQL("CREATE TRIGGER entries_fts_after_delete AFTER DELETE ON entries BEGIN " +
+                "DELETE FROM entries_fts WHERE docid = old._id; " +
+                "END;");
+    }
+
+    //-----------------------Entries--------------------------
+
+    // Insert a entry into the database
+    public synchronized long addEntry(Entry entry) {
+        long newId = -1;
+        if(hasContent(entry)) {
+            try {
+                long now = System.currentTimeMillis();
+                SQLiteStatement statement = statement(STATEMENT_INSERT_ENTRY);
+                bindEntry(statement, entry, now);
+                if(entry.categoryId != -1) { // if not main category
+                    statement.bindLong(11, entry.categoryId);
+                } else {
+                    statement.bindNull(11);
+                }
+                statement.bindLong(12, now);
+                newId = statement.executeInsert();
+                entry.createdAt = now;
+                entry.updatedAt = now;
+            } catch (Exception e) {
+                Log.d(TAG, "Error while trying to add entry to database");
+            }
+        }
+        return newId;
+    }
+
+    // An emptied note isn't written, an encrypted one always has its envelope
+    private static boolean hasContent(Entry entry) {
+        return !entry.title.isEmpty() || !entry.body.isEmpty() || (entry.isEncrypted && entry.encryptedBody != null);
+    }
+
+    // Binds the columns shared by the insert and update statements, in the same order in both.
+    // Encrypted entries are written from encryptedBody and get an empty body.
+    private static void bindEntry(SQLiteStatement statement, Entry entry, long updatedMs) {
+        statement.bindString(1, entry.title);
+        statement.bindString(2, entry.isEncrypted ? "" : entry.body);
+        statement.bindString(3, entry.isEncrypted ? "" : makePreview(entry.body));
+        statement.bindLong(4, entry.title.isEmpty() ? 0 : 1);
+        statement.bindLong(5, entry.isEncrypted || !entry.body.isEmpty() ? 1 : 0);
+        statement.bindLong(6, entry.isEncrypted ? 1 : 0);
+        statement.bindLong(7, updatedMs);
+        bindBlobOrNull(statement, 8, entry.isEncrypted ? entry.wrappedKey : null);
+        bindBlobOrNull(statement, 9, entry.isEncrypted ? entry.encryptedBody : null);
+        statement.bindLong(10, entry.isEncrypted ? 0 : entry.body.codePointCount(0, entry.body.length()));
+    }
+
+    private static void bindBlobOrNull(SQLiteStatement statement, int index, byte[] value) {
+        if(value != null) {
+            statement.bindBlob(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    // An envelope column as a BLOB, converting it if it is still in the Base64 text format, see CryptoManager.fromLegacyText
+    private static byte[] readEnvelope(Cursor cursor, int column) {
+        switch(cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return CryptoManager.INSTANCE.fromLegacyText(cursor.getString(column));
+            default:
+                return null;
+        }
+    }
+
+    // The first PREVIEW_LENGTH characters of the body with line breaks removed
+    // Only walks as much of the body as it needs, however long the note is
+    static String makePreview(String body) {
+        StringBuilder preview = new StringBuilder(Math.min(body.length(), PREVIEW_LENGTH));
+        for(int i = 0; i < body.length() && preview.length() < PREVIEW_LENGTH; i++) {
+            char c = body.charAt(i);
+            if(c != '\n' && c != '\r') {
+                preview.append(c);
+            }
+        }
+        return preview.toString();
+    }
+
+    // get entry for given id, from the cache if it was read recently
+    // Callers get their own copy, so changing it doesn't change the cached entry
+    public Entry getEntry(long id) {
+        Entry cached;
+        long generation;
+        synchronized (entryCache) {
+            cached = entryCache.get(id);
+            generation = entryCacheGeneration;
+        }
+        if(cached != null) {
+            return cached.copy();
+        }
+        Entry thisEntry = new Entry();
+        SQLiteDatabase db = getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT title, " + BODY_OR_ENVELOPE_COLUMN + ", category_id, is_encrypted, " + createdMsColumn() + ", " + updatedMsColumn() + ", wrapped_key FROM entries WHERE _id=?", new String[]{Long.toString(id)})) {
+            if(cursor.getCount() == 1) {
+                cursor.moveToFirst(); // select first row
+                thisEntry.title = cursor.getString(0);
+                thisEntry.categoryId = cursor.getLong(2);
+                thisEntry.isEncrypted = cursor.getInt(3) == 1;
+                if(thisEntry.isEncrypted) {
+                    thisEntry.body = "";
+                    thisEntry.encryptedBody = readEnvelope(cursor, 1);
+                    thisEntry.wrappedKey = cursor.getBlob(6);
+                } else {
+                    thisEntry.body = cursor.getString(1);
+                }
+                thisEntry.createdAt = cursor.getLong(4);
+                thisEntry.updatedAt = cursor.getLong(5);
+                synchronized (entryCache) {
+                    if(generation == entryCacheGeneration) {
+                        entryCache.put(id, thisEntry.copy());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e("cursor error", e.getLocalizedMessage());
+        }
+        return thisEntry;
+    }
+
+    // Called after a write has committed, so any read that starts afterwards sees the new row
+    private void invalidateEntry(long id) {
+        synchronized (entryCache) {
+            entryCache.remove(id);
+            entryCacheGeneration++;
+        }
+    }
+
+    private void invalidateEntries(long[] ids) {
+        synchronized (entryCache) {
+            for(long id : ids) {
+                entryCache.remove(id);
+            }
+            entryCacheGeneration++;
+        }
+    }
+
+    private void invalidateAllEntries() {
+        synchronized (entryCache) {
+            entryCache.evictAll();
+            entryCacheGeneration++;
+        }
+    }
+
+    public int getEntryCacheHitCount() {
+        return entryCache.hitCount();
+    }
+
+    public int getEntryCacheMissCount() {
+        return entryCache.missCount();
+    }
+
+    public synchronized void updateEntry(long id, Entry entry) {
+        if(hasContent(entry)) {
+            try {
+                long now = System.currentTimeMillis();
+                SQLiteStatement statement = statement(STATEMENT_UPDATE_ENTRY);
+                bindEntry(statement, entry, now);
+                statement.bindLong(11, id);
+                statement.executeUpdateDelete();
+                entry.updatedAt = now;
+            } catch (Exception e) {
+                Log.d(TAG, "Error while trying to update entry from database");
+            }
+            invalidateEntry(id);
+        }
+    }
+
+    // Delete entry from the database
+    public synchronized void deleteEntry(long id) {
+        try {
+            SQLiteStatement statement = statement(STATEMENT_DELETE_ENTRY);
+            statement.bindLong(1, id);
+            statement.executeUpdateDelete();
+        } catch (Exception e) {
+            Log.d(TAG, "Error while trying to delete entry from database");
+        }
+        invalidateEntry(id);
+    }
+
+    //-----------------------Large Entries--------------------------
+
+    // Large bodies are never read whole. Offsets and lengths are in characters as SQLite counts them,
+    // which are code points rather than Java chars, since the windows are cut and spliced with substr.
+
+    // The entry for the editor. For an unencrypted body over LARGE_BODY_CHARS the body is left null
+    // and bodyLength is set instead, the editor then reads it a window at a time with getBodyWindow.
+    public Entry getEntryForEditing(long id) {
+        SQLiteDatabase db = getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT title, body_length, category_id, is_encrypted, " + createdMsColumn() + ", " + updatedMsColumn() + " FROM entries WHERE _id=?", new String[]{Long.toString(id)})) {
+            if(cursor.moveToFirst()) {
+                long bodyLength = cursor.getLong(1);
+                boolean isEncrypted = cursor.getInt(3) == 1;
+                if(!isEncrypted && bodyLength > LARGE_BODY_CHARS) {
+                    Entry entry = new Entry();
+                    entry.title = cursor.getString(0);
+                    entry.bodyLength = bodyLength;
+                    entry.categoryId = cursor.getLong(2);
+                    entry.isEncrypted = false;
+                    entry.createdAt = cursor.getLong(4);
+                    entry.updatedAt = cursor.getLong(5);
+                    return entry;
+                }
+            }
+        } catch (Exception e) {
+            Log.e("cursor error", e.getLocalizedMessage());
+        }
+        return getEntry(id);
+    }
+
+    // Up to length characters of the body starting at start
+    public String getBodyWindow(long id, long start, long length) {
+        SQLiteDatabase db = getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT substr(body, " + (start + 1) + ", " + length + ") FROM entries WHERE _id=?", new String[]{Long.toString(id)})) {
+            if(cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        } catch (Exception e) {
+            Log.e("cursor error", e.getLocalizedMessage());
+        }
+        return "";
+    }
+
+    // Saves the title and replaces length characters of the body at start with text,
+    // the rest of the body is spliced around it inside SQLite and never read into memory.
+    // SQLite still rewrites the whole row and the search index reindexes the whole body, so each save costs
+    // time in proportion to the note. That is accepted: it runs on the write thread, only once typing pauses,
+    // and keeps search right for large notes without a separate index path.
+    public synchronized void replaceBodyWindow(long id, String title, long start, long length, String text) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement splice = statement(STATEMENT_SPLICE_BODY);
+            splice.bindString(1, title);
+            splice.bindLong(2, title.isEmpty() ? 0 : 1);
+            splice.bindLong(3, start);
+            splice.bindString(4, text);
+            splice.bindLong(5, start + length + 1);
+            // the part of the window that was inside the body is replaced by text
+            splice.bindLong(6, length);
+            splice.bindLong(7, start);
+            splice.bindLong(8, text.codePointCount(0, text.length()));
+            splice.bindLong(9, System.currentTimeMillis());
+            splice.bindLong(10, id);
+            splice.executeUpdateDelete();
+            SQLiteStatement preview = statement(STATEMENT_UPDATE_PREVIEW);
+            preview.bindString(1, makePreview(readBodyStart(db, id)));
+            preview.bindLong(2, id);
+            preview.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.d(TAG, "Error while trying to update entry window in database");
+        } finally {
+            db.endTransaction();
+        }
+        invalidateEntry(id);
+    }
+
+    // Enough of the start of the body for makePreview, read longer only when line breaks use up the first part
+    private static String readBodyStart(SQLiteDatabase db, long id) {
+        String[] args = new String[]{Long.toString(id)};
+        for(long length = PREVIEW_LENGTH * 2; ; length *= 2) {
+            String start = DatabaseUtils.stringForQuery(db, "SELECT substr(body, 1, " + length + ") FROM entries WHERE _id = ?", args);
+            if(makePreview(start).length() >= PREVIEW_LENGTH || start.codePointCount(0, start.length()) < length) {
+                return start;
+            }
+        }
+    }
+
+    //-----------------------Bulk Entries--------------------------
+
+    // Each bulk method runs as a single transaction, working through the ids in chunks
+    // small enough for SQLite's bound-parameter limit.
+    // They return how many entries were changed.
+
+    public synchronized int deleteEntries(long[] ids) {
+        int deleted = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for(int start = 0; start < ids.length; start += BULK_CHUNK_SIZE) {
+                int end = Math.min(ids.length, start + BULK_CHUNK_SIZE);
+                SQLiteStatement statement = db.compileStatement("DELETE FROM entries WHERE _id IN (" + placeholders(end - start) + ")");
+                try {
+                    bindIds(statement, 1, ids, start, end);
+                    deleted += statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.d(TAG, "Error while trying to delete entries from database");
+            deleted = 0;
+        } finally {
+            db.endTransaction();
+        }
+        invalidateEntries(ids);
+        return deleted;
+    }
+
+    // Moves entries to a category, -1 being "Main"
+    public synchronized int moveEntries(long[] ids, long categoryId) {
+        int moved = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for(int start = 0; start < ids.length; start += BULK_CHUNK_SIZE) {
+                int end = Math.min(ids.length, start + BULK_CHUNK_SIZE);
+                SQLiteStatement statement = db.compileStatement("UPDATE entries SET category_id = ? WHERE _id IN (" + placeholders(end - start) + ")");
+                try {
+                    if(categoryId != -1) {
+                        statement.bindLong(1, categoryId);
+                    } else {
+                        statement.bindNull(1);
+                    }
+                    bindIds(statement, 2, ids, start, end);
+                    moved += statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.d(TAG, "Error while trying to move entries in database");
+            moved = 0;
+        } finally {
+            db.endTransaction();
+        }
+        invalidateEntries(ids);
+        return moved;
+    }
+
+    // Encrypts the entries that aren't encrypted yet with one password.
+    // They all share salt, whose key the caller derived ahead with CryptoManager.prepareKey, so this only does the fast cipher work.
+    // With a null password they become vault notes instead, each with its own data key, and the vault must be unlocked.
+    // The caller keeps the password or the vault for this session, so the plain text goes into UnlockedNotesIndex.
+    // Returns the ids that were encrypted, none if cancellationSignal was cancelled before they all were.
+    public synchronized List<Long> encryptEntries(long[] ids, char[] password, byte[] salt, CancellationSignal cancellationSignal) {
+        List<Long> indexed = new ArrayList<>();
+        List<Long> encrypted = transformEntries(ids, false, cancellationSignal, (id, entry) -> {
+            if(password == null) {
+                entry.wrappedKey = CryptoManager.INSTANCE.newWrappedKey();
+                entry.encryptedBody = CryptoManager.INSTANCE.encryptWithVault(entry.body, entry.wrappedKey);
+            } else {
+                entry.encryptedBody = CryptoManager.INSTANCE.encrypt(entry.body, password, salt);
+            }
+            UnlockedNotesIndex.put(id, entry.title, entry.body);
+            indexed.add(id);
+            return true;
+        });
+        if(encrypted.isEmpty()) {
+            for(long id : indexed) {
+                UnlockedNotesIndex.remove(id); // rolled back
+            }
+        }
+        return encrypted;
+    }
+
+    // Decrypts the encrypted entries that open with the given password, the rest are left as they are.
+    // Vault notes are decrypted too if the vault is unlocked.
+    // Keys derived ahead for getEncryptedSalts are reused from CryptoManager's cache.
+    // Returns the ids that were decrypted, none if cancellationSignal was cancelled before they all were.
+    public synchronized List<Long> decryptEntries(long[] ids, char[] password, CancellationSignal cancellationSignal) {
+        return transformEntries(ids, true, cancellationSignal, (id, entry) -> {
+            try {
+                if(entry.wrappedKey != null) {
+                    entry.body = CryptoManager.INSTANCE.decryptWithVault(entry.encryptedBody, entry.wrappedKey);
+                } else {
+                    entry.body = CryptoManager.INSTANCE.decrypt(entry.encryptedBody, password);
+                }
+                return true;
+            } catch (Exception e) {
+                return false; // wrong password for this entry, or the vault is locked
+            }
+        });
+    }
+
+    // The salts of the given entries that are encrypted, so their keys can be derived before decryptEntries
+    public List<byte[]> getEncryptedSalts(long[] ids) {
+        List<byte[]> salts = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        String[] args = new String[1];
+        for(long id : ids) {
+            args[0] = Long.toString(id);
+            try (Cursor cursor = db.rawQuery("SELECT " + BODY_OR_ENVELOPE_COLUMN + " FROM entries WHERE _id = ? AND is_encrypted = 1 AND wrapped_key IS NULL", args)) {
+                if(cursor.moveToFirst()) {
+                    byte[] salt = CryptoManager.INSTANCE.extractSalt(readEnvelope(cursor, 0));
+                    if(salt != null) {
+                        salts.add(salt);
+                    }
+                }
+            }
+        }
+        return salts;
+    }
+
+    private interface BodyTransform {
+        // Turns entry, which holds the current body, into its new state and returns true, or returns false to leave the entry alone.
+        // Encrypting sets entry.encryptedBody, and entry.wrappedKey when it is encrypted with the vault. Decrypting sets entry.body.
+        boolean apply(long id, Entry entry) throws Exception;
+    }
+
+    // Rewrites the bodies of the given entries that are currently (encrypted == true) encrypted or not,
+    // flipping their encrypted flag. Bodies are read one entry at a time so large notes never share a cursor window.
+    private List<Long> transformEntries(long[] ids, boolean encrypted, CancellationSignal cancellationSignal, BodyTransform transform) {
+        List<Long> changed = new ArrayList<>();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement update = statement(STATEMENT_UPDATE_ENTRY);
+            Entry entry = new Entry();
+            String[] args = new String[2];
+            args[1] = encrypted ? "1" : "0";
+            for(long id : ids) {
+                cancellationSignal.throwIfCanceled();
+                args[0] = Long.toString(id);
+                try (Cursor cursor = db.rawQuery("SELECT title, " + BODY_OR_ENVELOPE_COLUMN + ", wrapped_key FROM entries WHERE _id = ? AND is_encrypted = ?", args)) {
+                    if(!cursor.moveToFirst()) {
+                        continue;
+                    }
+                    entry.title = cursor.getString(0);
+                    if(encrypted) {
+                        entry.body = "";
+                        entry.encryptedBody = readEnvelope(cursor, 1);
+                        entry.wrappedKey = cursor.getBlob(2);
+                    } else {
+                        entry.body = cursor.getString(1);
+                        entry.encryptedBody = null;
+                        entry.wrappedKey = null;
+                    }
+                    if(!transform.apply(id, entry)) {
+                        continue;
+                    }
+                }
+                entry.isEncrypted = !encrypted;
+                bindEntry(update, entry, System.currentTimeMillis());
+                update.bindLong(11, id);
+                update.executeUpdateDelete();
+                changed.add(id);
+            }
+            db.setTransactionSuccessful();
+        } catch (OperationCanceledException e) {
+            changed.clear();
+        } catch (Exception e) {
+            Log.d(TAG, "Error while trying to re-encrypt entries in database");
+            changed.clear();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateEntries(ids);
+        return changed;
+    }
+
+    //-----------------------Vault--------------------------
+
+    // The vault's check value, null while vault mode is off
+    public byte[] getVault() {
+        SQLiteDatabase db = getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT check_value FROM vault WHERE _id = 1", null)) {
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        }
+    }
+
+    // Turns vault mode on, unless it is on already with another vault. Returns whether it was turned on.
+    public synchronized boolean setVault(byte[] checkValue) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put("_id", 1);
+        values.put("check_value", checkValue);
+        return db.insertWithOnConflict("vault", null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1;
+    }
+
+    // Turns vault mode off, unless vault notes still need the vault to be opened. Returns whether it was turned off.
+    public synchronized boolean deleteVault() {
+        SQLiteDatabase db = getWritableDatabase();
+        if(DatabaseUtils.queryNumEntries(db, TABLE_ENTRIES, "wrapped_key IS NOT NULL AND is_encrypted = 1") > 0) {
+            return false;
+        }
+        db.delete("vault", null, null);
+        return true;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder(count * 2);
+        for(int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
+    private static void bindIds(SQLiteStatement statement, int firstIndex, long[] ids, int start, int end) {
+        for(int i = start; i < end; i++) {
+            statement.bindLong(firstIndex + i - start, ids[i]);
+        }
+    }
+
+    //-----------------------Timestamps--------------------------
+
+    // Converts the next batch of entries upgraded from the TEXT timestamps, walking them in _id order.
+    // Once every entry is done the list index is rebuilt on updated_ms and the migration is forgotten.
+    // Returns true while there is more to do, each batch is its own transaction so other writes can run in between.
+    public synchronized boolean migrateTimestampBatch() {
+        SQLiteDatabase db = getWritableDatabase();
+        if(!timestampsPending) {
+            return false;
+        }
+        String[] name = new String[] { MIGRATION_TIMESTAMPS };
+        long lastId = DatabaseUtils.longForQuery(db, "SELECT last_id FROM migrations WHERE name = ?", name);
+        long maxId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(_id), 0) FROM entries", null);
+        boolean done = lastId >= maxId;
+        db.beginTransaction();
+        try {
+            if(!done) {
+                long batchEnd = lastId + TIMESTAMP_BATCH_SIZE;
+                // entries saved since the upgrade already have their own values
+                db.execSQL("UPDATE entries SET created_ms = " + legacyMillis("created_at") + ", updated_ms = IFNULL(updated_ms, " + legacyMillis("updated_at") + ")" +
+                        " WHERE _id > ? AND _id <= ? AND created_ms IS NULL", new Object[] { lastId, batchEnd });
+                db.execSQL("UPDATE migrations SET last_id = ? WHERE name = ?", new Object[] { batchEnd, MIGRATION_TIMESTAMPS });
+            } else {
+                db.execSQL("DROP INDEX IF EXISTS entries_category_updated_at;");
+                createEntriesListIndex(db);
+                db.execSQL("DELETE FROM migrations WHERE name = ?", name);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if(done) {
+            timestampsPending = false;
+        }
+        return !done;
+    }
+
+    // Timestamp columns as epoch millis, falling back to the TEXT columns for entries the migration hasn't reached.
+    // Checking the flag per query is safe, since the fallback gives the same values once everything is converted.
+    private String createdMsColumn() {
+        return timestampsPending ? "COALESCE(created_ms, " + legacyMillis("created_at") + ") AS created_ms" : "created_ms";
+    }
+
+    private String updatedMsColumn() {
+        return timestampsPending ? "COALESCE(updated_ms, " + legacyMillis("updated_at") + ") AS updated_ms" : "updated_ms";
+    }
+
+    // The columns the entry list reads, optionally qualified with a table alias
+    private String listColumns(String alias) {
+        String prefix = alias == null ? "" : alias + ".";
+        String columns = prefix + LIST_COLUMNS.replace(", ", ", " + prefix) + ", ";
+        return columns + (timestampsPending
+                ? "COALESCE(" + prefix + "updated_ms, " + legacyMillis(prefix + "updated_at") + ") AS updated_ms"
+                : prefix + "updated_ms");
+    }
+
+    // One page of a category's entries, newest first, starting after the given (updated_ms, _id) key
+    // Pass a null key for the first page
+    public Cursor getEntriesPage(long categoryId, Long afterUpdatedMs, long afterId, int limit) {
+        // While the timestamp migration runs the sort key is computed, so order by the result column
+        String sortKey = timestampsPending ? "COALESCE(updated_ms, " + legacyMillis("updated_at") + ")" : "updated_ms";
+        StringBuilder sql = new StringBuilder("SELECT " + listColumns(null) + " FROM " + TABLE_ENTRIES + " WHERE ");
+        List<String> args = new ArrayList<>();
+        if(categoryId == -1) {
+            sql.append("category_id IS NULL");
+        } else {
+            sql.append("category_id = ?");
+            args.add(Long.toString(categoryId));
+        }
+        if(afterUpdatedMs != null) {
+            // inlined rather than bound, rawQuery binds strings and those would compare as TEXT against the computed key
+            sql.append(" AND (").append(sortKey).append(", _id) < (").append(afterUpdatedMs).append(", ").append(afterId).append(")");
+        }
+        sql.append(" ORDER BY ").append(sortKey).append(" DESC, _id DESC LIMIT ").append(limit);
+        SQLiteDatabase db = getReadableDatabase();
+        return db.rawQuery(sql.toString(), args.toArray(new String[0]));
+    }
+
+    // Full-text search within a category, title hits ranked above body-only hits
+    // unlockedIds are encrypted notes whose decrypted text matched, found outside the database, they're
+    // merged in as body hits. Returns null when the search string has nothing searchable in it.
+    // Cancelling cancellationSignal stops the query, including while the cursor is being filled.
+    public Cursor searchEntries(long categoryId, String searchString, Set<Long> unlockedIds, CancellationSignal cancellationSignal) {
+        String bodyQuery = buildMatchQuery(searchString, null);
+        if(bodyQuery == null) {
+            return null;
+        }
+        String titleQuery = buildMatchQuery(searchString, KEY_ENTRY_TITLE);
+        String categoryClause = categoryId == -1 ? "e.category_id IS NULL" : "e.category_id = " + categoryId;
+        String orderBy = " ORDER BY e._id IN (SELECT docid FROM " + TABLE_ENTRIES_FTS + " WHERE " + TABLE_ENTRIES_FTS + " MATCH ?) DESC, updated_ms DESC";
+        SQLiteDatabase db = getReadableDatabase();
+        if(unlockedIds.isEmpty()) {
+            return db.rawQuery("SELECT " + listColumns("e") + " FROM " + TABLE_ENTRIES_FTS + " CROSS JOIN " + TABLE_ENTRIES + " e ON e._id = " + TABLE_ENTRIES_FTS + ".docid" +
+                    " WHERE " + TABLE_ENTRIES_FTS + " MATCH ? AND " + categoryClause + orderBy,
+                    new String[] { bodyQuery, titleQuery }, cancellationSignal);
+        }
+        StringBuilder ids = new StringBuilder();
+        for(long id : unlockedIds) {
+            if(ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        return db.rawQuery("SELECT " + listColumns("e") + " FROM " + TABLE_ENTRIES + " e" +
+                " WHERE (e._id IN (SELECT docid FROM " + TABLE_ENTRIES_FTS + " WHERE " + TABLE_ENTRIES_FTS + " MATCH ?) OR e._id IN (" + ids + "))" +
+                " AND " + categoryClause + orderBy,
+                new String[] { bodyQuery, titleQuery }, cancellationSignal);
+    }
+
+    // Whether searchString has anything to search for, otherwise searchEntries gives null
+    public static boolean isSearchable(String searchString) {
+        return buildMatchQuery(searchString, null) != null;
+    }
+
+    // Turns free text into an FTS query where every word must match as a prefix,
+    // optionally restricted to a single column
+    private static String buildMatchQuery(String searchString, String column) {
+        StringBuilder query = new StringBuilder();
+        for(String term : searchString.trim().split("\\s+")) {
+            term = term.replace("\"", "").replace("*", "");
+            if(!containsLetterOrDigit(term)) {
+                continue;
+            }
+            if(query.length() > 0) {
+                query.append(' ');
+            }
+            if(column != null) {
+                query.append(column).append(':');
+            }
+            query.append('"').append(term).append("*\"");
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    private static boolean containsLetterOrDigit(String term) {
+        for(int i = 0; i < term.length(); i++) {
+            if(Character.isLetterOrDigit(term.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //-----------------------Envelopes--------------------------
+
+    // Converts the next batch of encrypted entries still stored as Base64 text to binary envelopes, walking them in _id order.
+    // Nothing is decrypted, the envelopes hold the same bytes. Once every entry is done the migration is forgotten.
+    // Returns true while there is more to do, each batch is its own transaction so other writes can run in between.
+    public synchronized boolean migrateEnvelopeBatch() {
+        SQLiteDatabase db = getWritableDatabase();
+        String[] name = new String[] { MIGRATION_ENVELOPES };
+        if(DatabaseUtils.queryNumEntries(db, "migrations", "name = ?", name) == 0) {
+            return false;
+        }
+        long lastId = DatabaseUtils.longForQuery(db, "SELECT last_id FROM migrations WHERE name = ?", name);
+        List<Long> batch = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT _id FROM entries WHERE _id > ? AND is_encrypted = 1 AND encrypted_body IS NULL" +
+                " ORDER BY _id LIMIT " + ENVELOPE_BATCH_SIZE, new String[] { Long.toString(lastId) })) {
+            while(cursor.moveToNext()) {
+                batch.add(cursor.getLong(0));
+            }
+        }
+        boolean done = batch.size() < ENVELOPE_BATCH_SIZE;
+        long[] ids = new long[batch.size()];
+        db.beginTransaction();
+        try {
+            String[] args = new String[1];
+            for(int i = 0; i < ids.length; i++) {
+                ids[i] = batch.get(i);
+                args[0] = Long.toString(ids[i]);
+                // one body at a time, like transformEntries
+                try (Cursor cursor = db.rawQuery("SELECT " + BODY_OR_ENVELOPE_COLUMN + " FROM entries WHERE _id = ?", args)) {
+                    if(!cursor.moveToFirst()) {
+                        continue;
+                    }
+                    byte[] encryptedBody = readEnvelope(cursor, 0);
+                    if(encryptedBody == null) {
+                        Log.d(TAG, "Encrypted entry " + ids[i] + " isn't in a known format, leaving it as it is");
+                        continue;
+                    }
+                    db.execSQL("UPDATE entries SET body = '', body_length = 0, encrypted_body = ? WHERE _id = ?",
+                            new Object[] { encryptedBody, ids[i] });
+                }
+            }
+            if(!done) {
+                db.execSQL("UPDATE migrations SET last_id = ? WHERE name = ?", new Object[] { batch.get(batch.size() - 1), MIGRATION_ENVELOPES });
+            } else {
+                db.execSQL("DELETE FROM migrations WHERE name = ?", name);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateEntries(ids);
+        return !done;
+    }
+
+    //-----------------------Categories--------------------------
+
+    // All categories oldest first, with "Main" (id -1) on top
+    public Cursor getCategories() {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT * FROM categories ORDER BY created_ms ASC", null);
+        MatrixCursor matrixCursor = new MatrixCursor(new String[] { "_id", "name" });
+        matrixCursor.addRow(new Object[] { -1, "Main" });
+        return new MergeCursor(new Cursor[] { matrixCursor, cursor });
+    }
+
+    public String getCategoryName(long id) {
+        SQLiteDatabase db = getReadableDatabase();
+        try {
+            Cursor cursor = db.rawQuery("SELECT * FROM categories WHERE _id=?", new String[]{Long.toString(id)});
+            if(cursor.getCount() == 1) {
+                cursor.moveToFirst(); // select first row
+                return cursor.getString(cursor.getColumnIndexOrThrow(KEY_CATEGORY_NAME));
+            }
+        } catch (Exception e) {
+            Log.e("cursor error", e.getLocalizedMessage());
+        }
+        return null;
+    }
+
+    public synchronized void addCategory(Category category) {
+        if(!category.name.isEmpty()) {
+            try {
+                long now = System.currentTimeMillis();
+                SQLiteStatement statement = statement(STATEMENT_INSERT_CATEGORY);
+                statement.bindString(1, category.name);
+                statement.bindLong(2, now);
+                statement.bindLong(3, now);
+                statement.executeInsert();
+            } catch (Exception e) {
+                Log.d(TAG, "Error while trying to add category to database");
+            }
+        }
+    }
+
+    public synchronized void updateCategory(long id, Category category) {
+        if(!category.name.isEmpty()) {
+            try {
+                SQLiteStatement statement = statement(STATEMENT_UPDATE_CATEGORY);
+                statement.bindString(1, category.name);
+                statement.bindLong(2, System.currentTimeMillis());
+                statement.bindLong(3, id);
+                statement.executeUpdateDelete();
+            } catch (Exception e) {
+                Log.d(TAG, "Error while trying to update category from database");
+            }
+        }
+    }
+
+    public synchronized void deleteCategory(long id) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement deleteCategory = statement(STATEMENT_DELETE_CATEGORY);
+            deleteCategory.bindLong(1, id);
+            deleteCategory.executeUpdateDelete();
+            SQLiteStatement deleteEntries = statement(STATEMENT_DELETE_CATEGORY_ENTRIES);
+            deleteEntries.bindLong(1, id);
+            deleteEntries.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.d(TAG, "Error while trying to delete category from database");
+        } finally {
+            db.endTransaction();
+        }
+        invalidateAllEntries(); // the category's entries aren't known here
+    }
+
+    //-----------------------Statements--------------------------
+
+    // Compiled once and reused by every write, so a save only binds values and steps the statement.
+    // Callers must hold the handler's lock, since binding and executing a shared statement isn't atomic.
+    private SQLiteStatement statement(int which) {
+        SQLiteDatabase db = getWritableDatabase();
+        if(statementsDb != db) { // first use, or the database was closed and reopened since
+            releaseStatements();
+            statementsDb = db;
+        }
+        SQLiteStatement statement = statements[which];
+        if(statement == null) {
+            statement = db.compileStatement(STATEMENT_SQL[which]);
+            statements[which] = statement;
+        }
+        return statement;
+    }
+
+    private void releaseStatements() {
+        for(int i = 0; i < statements.length; i++) {
+            if(statements[i] != null) {
+                statements[i].close();
+                statements[i] = null;
+            }
+        }
+        statementsDb = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        releaseStatements();
+        invalidateAllEntries(); // the database may be replaced before it is reopened
+        super.close();
+    }
+
+    //-----------------------Other--------------------------
+
+    // Copies everything in the WAL file back into the main database file and truncates the WAL.
+    // TRUNCATE waits for every reader to finish, so this is only for before the database file is copied
+    // somewhere else. Everywhere else SQLite's auto-checkpoint keeps the WAL in check without blocking writes.
+    public void checkpoint() {
+        SQLiteDatabase db = getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,602 @@
+package com.flawiddsouza.writer;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Front for WriterDatabaseHandler that keeps all database and database file work off the main thread.
+// Writes run one at a time in submission order, reads run concurrently with them and with each other
+// (the database is in WAL mode), and results are delivered back on the main thread.
+// Encryption and key derivation run on CryptoManager's executor before the writes that need them.
+// Since a read can finish before an earlier write, screens listen for entry changes instead of
+// relying on ordering.
+public class WriterRepository {
+
+    private static final String TAG = "WriterRepository";
+    // Enough for the list, a search and a note load to run side by side, each on its own WAL reader connection
+    private static final int READER_THREADS = 3;
+
+    private static WriterRepository sInstance;
+
+    private final Context context;
+    private final WriterDatabaseHandler handler;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READER_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Runnable> entriesObservers = new ArrayList<>();
+    // Writes still waiting on CryptoManager's executor, see queueWrite
+    private final AtomicInteger pendingCryptoWrites = new AtomicInteger();
+    // Ids of notes saveEntry added under an insert key, kept for an editor recreated while the insert was running
+    private final Map<String, Long> insertedIds = new ConcurrentHashMap<>();
+    // Held for reading by database work outside the write thread, replaceDatabase takes it for writing
+    // so nothing is using the old database file while it is swapped out
+    private final ReadWriteLock databaseLock = new ReentrantReadWriteLock();
+    // Pagers handed out by newPager and not released yet, their pages are cursors on the database
+    private final Set<EntryPager> openPagers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    public static synchronized WriterRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WriterRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WriterRepository(Context context) {
+        this.context = context;
+        handler = WriterDatabaseHandler.getInstance(context);
+        recoverEditJournals();
+        migrateTimestamps();
+        migrateEnvelopes();
+    }
+
+    // Works through the background timestamp migration one batch per task, so saves queued meanwhile
+    // only ever wait for a single batch. Does nothing once the database is fully migrated.
+    private void migrateTimestamps() {
+        writeExecutor.execute(() -> {
+            try {
+                if(handler.migrateTimestampBatch()) {
+                    migrateTimestamps();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Timestamp migration failed", e);
+            }
+        });
+    }
+
+    // Same for converting encrypted notes saved as Base64 text to binary envelopes
+    private void migrateEnvelopes() {
+        writeExecutor.execute(() -> {
+            try {
+                if(handler.migrateEnvelopeBatch()) {
+                    migrateEnvelopes();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Envelope migration failed", e);
+            }
+        });
+    }
+
+    // Saves what editors killed with unsaved edits left in their journals. Runs once per process, whichever
+    // activity is started first, and ahead of anything an editor restored after the kill queues.
+    private void recoverEditJournals() {
+        writeEntries(() -> {
+            EditJournal.recover(context, handler);
+            return null;
+        }, null);
+    }
+
+    // Observers are called on the main thread after any write that changes entries
+    public void addEntriesObserver(Runnable observer) {
+        entriesObservers.add(observer);
+    }
+
+    public void removeEntriesObserver(Runnable observer) {
+        entriesObservers.remove(observer);
+    }
+
+    private void notifyEntriesChanged() {
+        mainHandler.post(() -> {
+            for(Runnable observer : new ArrayList<>(entriesObservers)) {
+                observer.run();
+            }
+        });
+    }
+
+    private <T> void read(Callable<T> work, Callback<T> callback) {
+        execute(readExecutor, () -> whileOpen(work), callback);
+    }
+
+    // Runs work holding off replaceDatabase, for database work that isn't on the write thread
+    private <T> T whileOpen(Callable<T> work) throws Exception {
+        databaseLock.readLock().lock();
+        try {
+            return work.call();
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    private <T> void write(Callable<T> work, Callback<T> callback) {
+        queueWrite(task(work, callback));
+    }
+
+    // Writes that can change what the entry list shows
+    private <T> void writeEntries(Callable<T> work, Callback<T> callback) {
+        write(entriesWork(work), callback);
+    }
+
+    private <T> Callable<T> entriesWork(Callable<T> work) {
+        return () -> {
+            try {
+                return work.call();
+            } finally {
+                notifyEntriesChanged();
+            }
+        };
+    }
+
+    // Runs crypto work on CryptoManager's executor and then queues the entry write it returns, so a slow key
+    // derivation never holds up the write thread. Cancelling the crypto work with an OperationCanceledException skips the write.
+    private <T> void cryptoThenWriteEntries(Callable<Callable<T>> crypto, Callback<T> callback) {
+        pendingCryptoWrites.incrementAndGet();
+        CryptoManager.INSTANCE.getExecutor().execute(() -> {
+            try {
+                writeExecutor.execute(task(entriesWork(crypto.call()), callback));
+            } catch (Exception e) {
+                if(!(e instanceof OperationCanceledException)) {
+                    Log.e(TAG, "Background crypto work failed", e);
+                }
+                if(callback != null) {
+                    mainHandler.post(() -> callback.onResult(null));
+                }
+            } finally {
+                pendingCryptoWrites.decrementAndGet();
+            }
+        });
+    }
+
+    // Writes queued while crypto work submitted before them is still running wait for it on CryptoManager's
+    // executor, so writes always reach the database in the order they were made
+    private void queueWrite(Runnable task) {
+        if(pendingCryptoWrites.get() == 0) {
+            writeExecutor.execute(task);
+            return;
+        }
+        pendingCryptoWrites.incrementAndGet();
+        CryptoManager.INSTANCE.getExecutor().execute(() -> {
+            writeExecutor.execute(task);
+            pendingCryptoWrites.decrementAndGet();
+        });
+    }
+
+    // Runs work in the background and hands its result to callback on the main thread
+    // callback may be null for fire-and-forget writes
+    private <T> void execute(ExecutorService executor, Callable<T> work, Callback<T> callback) {
+        executor.execute(task(work, callback));
+    }
+
+    private <T> Runnable task(Callable<T> work, Callback<T> callback) {
+        return () -> {
+            T result;
+            try {
+                result = work.call();
+            } catch (Exception e) {
+                Log.e(TAG, "Background database work failed", e);
+                result = null;
+            }
+            if(callback != null) {
+                T finalResult = result;
+                mainHandler.post(() -> callback.onResult(finalResult));
+            }
+        };
+    }
+
+    // Cursors are filled here so the first read on the main thread doesn't hit the disk
+    private static Cursor filled(Cursor cursor) {
+        if(cursor != null) {
+            cursor.getCount();
+        }
+        return cursor;
+    }
+
+    //-----------------------Entries--------------------------
+
+    // Entry list loads are diffed against shown, the update the list is currently showing, on the read thread
+
+    public void loadEntries(EntryPager pager, int minimumRows, EntryListUpdate shown, Callback<EntryListUpdate> callback) {
+        read(() -> pager.load(minimumRows, shown), callback);
+    }
+
+    public void loadNextEntriesPage(EntryPager pager, EntryListUpdate shown, Callback<EntryListUpdate> callback) {
+        read(() -> pager.loadNextPage(shown), callback);
+    }
+
+    // Search results aren't paged. Check WriterDatabaseHandler.isSearchable first, the paged list is shown for anything else.
+    // Encrypted notes unlocked this session are found by their body too, see UnlockedNotesIndex
+    // The caller owns the returned cursor. A search cancelled with cancellationSignal gives null.
+    public void searchEntries(long categoryId, String searchString, EntryListUpdate shown, CancellationSignal cancellationSignal,
+                              Callback<EntryListUpdate> callback) {
+        read(() -> {
+            Cursor cursor = null;
+            try {
+                cancellationSignal.throwIfCanceled(); // superseded while it was queued
+                cursor = handler.searchEntries(categoryId, searchString, UnlockedNotesIndex.search(searchString), cancellationSignal);
+                return cursor != null ? EntryListUpdate.create(cursor, shown) : null; // runs the query
+            } catch (OperationCanceledException e) {
+                if(cursor != null) {
+                    cursor.close();
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    // Pagers have to come from here, so a restore can close their cursors before it replaces the database
+    public EntryPager newPager(long categoryId) {
+        EntryPager pager = new EntryPager(handler, categoryId);
+        openPagers.add(pager);
+        return pager;
+    }
+
+    // Closes a pager's cursors once any page it is still loading has finished
+    public void releasePager(EntryPager pager) {
+        readExecutor.execute(() -> {
+            openPagers.remove(pager);
+            pager.close();
+        });
+    }
+
+    public void getEntry(long id, Callback<Entry> callback) {
+        read(() -> handler.getEntry(id), callback);
+    }
+
+    // Large unencrypted notes come back without their body, see WriterDatabaseHandler.getEntryForEditing.
+    // Read on the write thread like body windows, so a note reopened right after closing it comes with the
+    // save its editor queued on the way out, even one still encrypting, instead of the text before it.
+    public void getEntryForEditing(long id, Callback<Entry> callback) {
+        write(() -> handler.getEntryForEditing(id), callback);
+    }
+
+    // Body windows are read on the write thread, so they always come after any window saved before them
+    public void getBodyWindow(long id, long start, long length, Callback<String> callback) {
+        write(() -> handler.getBodyWindow(id, start, length), callback);
+    }
+
+    public void replaceBodyWindow(long id, String title, long start, long length, String text, Callback<Void> callback) {
+        writeEntries(() -> {
+            handler.replaceBodyWindow(id, title, start, length, text);
+            return null;
+        }, callback);
+    }
+
+    public void addEntry(Entry entry, Callback<Long> callback) {
+        writeEntries(() -> handler.addEntry(entry), callback);
+    }
+
+    // Saves an entry from the editor, inserting it when id is -1, and gives back its id.
+    // With a password the body is encrypted on CryptoManager's executor first, reusing salt when it is given so the
+    // key isn't derived again, and entry.encryptedBody holds the encrypted body afterwards with entry.body emptied. password is cleared once used.
+    // An encrypted entry with a wrappedKey is a vault note and is encrypted with its data key instead of a password.
+    // An insert remembers its id under insertKey (may be null) until forgetInsertedId.
+    public void saveEntry(long id, String insertKey, Entry entry, char[] password, byte[] salt, Callback<Long> callback) {
+        Callable<Long> save = () -> {
+            if(id == -1) {
+                long newId = handler.addEntry(entry);
+                if(insertKey != null && newId != -1) {
+                    insertedIds.put(insertKey, newId);
+                }
+                return newId;
+            }
+            handler.updateEntry(id, entry);
+            return id;
+        };
+        if(entry.isEncrypted && entry.wrappedKey != null) {
+            cryptoThenWriteEntries(() -> {
+                entry.encryptedBody = CryptoManager.INSTANCE.encryptWithVault(entry.body, entry.wrappedKey);
+                entry.body = "";
+                return save;
+            }, callback);
+            return;
+        }
+        if(password == null) {
+            writeEntries(save, callback);
+            return;
+        }
+        cryptoThenWriteEntries(() -> {
+            try {
+                entry.encryptedBody = CryptoManager.INSTANCE.encrypt(entry.body, password, salt);
+                entry.body = "";
+            } finally {
+                CryptoManager.INSTANCE.clearPassword(password);
+            }
+            return save;
+        }, callback);
+    }
+
+    // The id of the note saveEntry added under insertKey, null if the insert failed.
+    // Queued as a write, so it comes after the insert however long its encryption takes.
+    public void getInsertedId(String insertKey, Callback<Long> callback) {
+        write(() -> insertedIds.get(insertKey), callback);
+    }
+
+    // Once the editor that owns the note has its id and won't hand insertKey on
+    public void forgetInsertedId(String insertKey) {
+        insertedIds.remove(insertKey);
+    }
+
+    public void updateEntry(long id, Entry entry, Callback<Void> callback) {
+        writeEntries(() -> {
+            handler.updateEntry(id, entry);
+            return null;
+        }, callback);
+    }
+
+    public void deleteEntry(long id, Callback<Void> callback) {
+        writeEntries(() -> {
+            handler.deleteEntry(id);
+            return null;
+        }, callback);
+    }
+
+    // The bulk callbacks get how many entries were changed, or for encryption the ids that were changed
+
+    public void deleteEntries(long[] ids, Callback<Integer> callback) {
+        writeEntries(() -> handler.deleteEntries(ids), callback);
+    }
+
+    public void moveEntries(long[] ids, long categoryId, Callback<Integer> callback) {
+        writeEntries(() -> handler.moveEntries(ids, categoryId), callback);
+    }
+
+    // Cancelling cancellationSignal stops the batch and leaves every entry as it was, the callback then gets null or an empty list
+
+    // With a null password the entries become vault notes, the vault has to be unlocked
+    public void encryptEntries(long[] ids, char[] password, CancellationSignal cancellationSignal, Callback<List<Long>> callback) {
+        if(password == null) {
+            writeEntries(() -> handler.encryptEntries(ids, null, null, cancellationSignal), callback);
+            return;
+        }
+        cryptoThenWriteEntries(() -> {
+            byte[] salt = CryptoManager.INSTANCE.newSalt();
+            CryptoManager.INSTANCE.prepareKey(password, salt);
+            cancellationSignal.throwIfCanceled();
+            return () -> handler.encryptEntries(ids, password, salt, cancellationSignal);
+        }, callback);
+    }
+
+    // Vault notes among ids are decrypted too if the vault is unlocked or password is the vault password
+    public void decryptEntries(long[] ids, char[] password, CancellationSignal cancellationSignal, Callback<List<Long>> callback) {
+        cryptoThenWriteEntries(() -> {
+            byte[] vault = whileOpen(handler::getVault);
+            boolean unlockedVault = vault != null && !CryptoManager.INSTANCE.isVaultUnlocked()
+                    && CryptoManager.INSTANCE.unlockVault(password, vault, cancellationSignal);
+            try {
+                for(byte[] salt : whileOpen(() -> handler.getEncryptedSalts(ids))) {
+                    cancellationSignal.throwIfCanceled();
+                    CryptoManager.INSTANCE.prepareKey(password, salt);
+                }
+            } catch (OperationCanceledException e) {
+                if(unlockedVault) {
+                    CryptoManager.INSTANCE.lockVault(); // unlocked for this decrypt only
+                }
+                throw e;
+            }
+            return () -> handler.decryptEntries(ids, password, cancellationSignal);
+        }, callback);
+    }
+
+    // Decrypts a note's body on CryptoManager's executor, the callback gets null if the password is wrong.
+    // Vault notes are decrypted with their data key and need no password, only an unlocked vault.
+    // Cancelled, the callback gets null and a key derived for it isn't kept.
+    public void decryptBody(Entry entry, char[] password, CancellationSignal cancellationSignal, Callback<String> callback) {
+        CryptoManager.INSTANCE.getExecutor().execute(() -> {
+            String decrypted;
+            try {
+                cancellationSignal.throwIfCanceled();
+                if(entry.wrappedKey != null) {
+                    decrypted = CryptoManager.INSTANCE.decryptWithVault(entry.encryptedBody, entry.wrappedKey);
+                } else {
+                    decrypted = CryptoManager.INSTANCE.decrypt(entry.encryptedBody, password);
+                    if(cancellationSignal.isCanceled()) {
+                        CryptoManager.INSTANCE.forgetKey(CryptoManager.INSTANCE.extractSalt(entry.encryptedBody));
+                        decrypted = null;
+                    }
+                }
+            } catch (Exception e) {
+                decrypted = null;
+            }
+            String result = decrypted;
+            mainHandler.post(() -> callback.onResult(result));
+        });
+    }
+
+    //-----------------------Vault--------------------------
+
+    // Whether vault mode is on
+    public void hasVault(Callback<Boolean> callback) {
+        read(() -> handler.getVault() != null, callback);
+    }
+
+    // Turns vault mode on with password, leaving the vault unlocked for this session. The callback gets false if it was on already.
+    public void createVault(char[] password, CancellationSignal cancellationSignal, Callback<Boolean> callback) {
+        cryptoThenWriteEntries(() -> {
+            cancellationSignal.throwIfCanceled();
+            byte[] checkValue = CryptoManager.INSTANCE.createVault(password);
+            if(cancellationSignal.isCanceled()) {
+                CryptoManager.INSTANCE.lockVault();
+                CryptoManager.INSTANCE.forgetKey(CryptoManager.INSTANCE.extractSalt(checkValue));
+                throw new OperationCanceledException();
+            }
+            return () -> {
+                if(!handler.setVault(checkValue)) {
+                    CryptoManager.INSTANCE.lockVault(); // the key of another vault
+                    return false;
+                }
+                return true;
+            };
+        }, callback);
+    }
+
+    // Unlocks the vault for this session, the callback gets whether the password was right.
+    // Cancelled, the vault stays locked and the callback gets false.
+    public void unlockVault(char[] password, CancellationSignal cancellationSignal, Callback<Boolean> callback) {
+        execute(CryptoManager.INSTANCE.getExecutor(), () -> {
+            byte[] vault = whileOpen(handler::getVault);
+            return vault != null && CryptoManager.INSTANCE.unlockVault(password, vault, cancellationSignal);
+        }, callback);
+    }
+
+    // The callback gets false if vault notes are left, which can only be opened with the vault
+    public void deleteVault(Callback<Boolean> callback) {
+        write(handler::deleteVault, callback);
+    }
+
+    //-----------------------Categories--------------------------
+
+    public void loadCategories(Callback<Cursor> callback) {
+        read(() -> filled(handler.getCategories()), callback);
+    }
+
+    public void getCategoryName(long id, Callback<String> callback) {
+        read(() -> handler.getCategoryName(id), callback);
+    }
+
+    public void addCategory(Category category, Callback<Void> callback) {
+        write(() -> {
+            handler.addCategory(category);
+            return null;
+        }, callback);
+    }
+
+    public void updateCategory(long id, Category category, Callback<Void> callback) {
+        write(() -> {
+            handler.updateCategory(id, category);
+            return null;
+        }, callback);
+    }
+
+    public void deleteCategory(long id, Callback<Void> callback) {
+        writeEntries(() -> {
+            handler.deleteCategory(id);
+            return null;
+        }, callback);
+    }
+
+    //-----------------------Backup & Restore--------------------------
+
+    // The callbacks get true on success and false on failure
+
+    public void exportDatabase(Uri dstUri, Callback<Boolean> callback) {
+        write(() -> {
+            handler.checkpoint(); // with WAL, recent commits may not be in the main file yet
+            try (InputStream in = new FileInputStream(getDatabaseFile());
+                 OutputStream out = context.getContentResolver().openOutputStream(dstUri)) {
+                copy(in, out);
+            }
+            return true;
+        }, result -> callback.onResult(result != null));
+    }
+
+    public void importDatabase(Uri srcUri, Callback<Boolean> callback) {
+        writeEntries(() -> {
+            try (InputStream in = context.getContentResolver().openInputStream(srcUri)) {
+                replaceDatabase(in);
+            }
+            return true;
+        }, result -> callback.onResult(result != null));
+    }
+
+    public void backupToFile(File dst, Callback<Boolean> callback) {
+        write(() -> {
+            handler.checkpoint(); // with WAL, recent commits may not be in the main file yet
+            try (InputStream in = new FileInputStream(getDatabaseFile());
+                 OutputStream out = new FileOutputStream(dst)) {
+                copy(in, out);
+            }
+            return true;
+        }, result -> callback.onResult(result != null));
+    }
+
+    public void restoreFromFile(File src, Callback<Boolean> callback) {
+        writeEntries(() -> {
+            try (InputStream in = new FileInputStream(src)) {
+                replaceDatabase(in);
+            }
+            return true;
+        }, result -> callback.onResult(result != null));
+    }
+
+    // Copies the backup next to the database first so a failed copy leaves the current database alone,
+    // then swaps it in with the database closed and the old WAL and shared-memory files removed,
+    // which would otherwise be replayed on top of the restored file
+    private void replaceDatabase(InputStream in) throws IOException {
+        File dbFile = getDatabaseFile();
+        File tmpFile = new File(dbFile.getPath() + ".restore");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            copy(in, out);
+        }
+        // Reads running on other threads finish first and new ones wait until the new file is in place
+        databaseLock.writeLock().lock();
+        try {
+            // Their cursors would otherwise fail on the closed database when the list next reads them,
+            // a visible list refreshes from the restored one
+            for(EntryPager pager : openPagers) {
+                pager.close();
+            }
+            openPagers.clear();
+            handler.close(); // reopened on next use
+            // Ids now name other notes, so session passwords and the word index of unlocked notes would point
+            // at the wrong ones, and the restored database may have another vault
+            CryptoManager.INSTANCE.clearAllSessions();
+            SQLiteDatabase.deleteDatabase(dbFile);
+            if(!tmpFile.renameTo(dbFile)) {
+                throw new IOException("Could not move restored database into place");
+            }
+        } finally {
+            databaseLock.writeLock().unlock();
+        }
+        migrateTimestamps(); // in case the backup is from before the timestamp migration
+        migrateEnvelopes(); // or the envelope migration
+    }
+
+    private File getDatabaseFile() {
+        return context.getDatabasePath(handler.getDatabaseName());
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) > 0) {
+            out.write(buf, 0, len);
+        }
+    }
+}
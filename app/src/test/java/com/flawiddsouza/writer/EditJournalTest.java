@@ -0,0 +1,175 @@
+package com.flawiddsouza.writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Writes a journal the way the editor does, "crashes" by leaving its files behind under another session,
+// then checks what recover() saves
+public class EditJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journals;
+    private File crashed;
+    private FakeNotes notes;
+    private ScheduledExecutorService executor; // the journal thread
+
+    private static class FakeNotes implements EditJournal.Notes {
+        final Map<Long, Entry> entries = new HashMap<>();
+        Entry added;
+        int updates;
+
+        @Override
+        public Entry getEntry(long id) {
+            Entry entry = entries.get(id);
+            return entry != null ? entry.copy() : new Entry();
+        }
+
+        @Override
+        public long addEntry(Entry entry) {
+            added = entry;
+            return 100;
+        }
+
+        @Override
+        public void updateEntry(long id, Entry entry) {
+            entries.put(id, entry);
+            updates++;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        journals = folder.newFolder("journals");
+        crashed = folder.newFolder("crashed");
+        notes = new FakeNotes();
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void putNote(long id, String body, long updatedMs) {
+        Entry entry = new Entry();
+        entry.title = "";
+        entry.body = body;
+        entry.categoryId = 5L;
+        entry.updatedAt = updatedMs;
+        notes.entries.put(id, entry);
+    }
+
+    // The journal's files as a process killed now would have left them, under a session no editor has open
+    private void crash(EditJournal journal) throws Exception {
+        journal.flush();
+        executor.submit(() -> { }).get(); // everything queued so far is written
+        File[] files = journals.listFiles();
+        assertTrue(files != null && files.length > 0);
+        for(File file : files) {
+            String name = file.getName();
+            Files.copy(file.toPath(), new File(crashed, "crashed" + name.substring(name.lastIndexOf('_'))).toPath());
+        }
+    }
+
+    @Test
+    public void newNoteSavedThenEditedIsUpdatedNotAddedAgain() throws Exception {
+        EditJournal journal = new EditJournal(journals, executor, -1, 5, 0);
+        journal.record(EditJournal.FIELD_BODY, 0, 0, "hello");
+        int segment = journal.startSegment("", "hello");
+        putNote(42, "hello", 1000); // the save reached the database
+        journal.saved(segment, 42, 1000);
+        journal.record(EditJournal.FIELD_BODY, 5, 0, " world");
+        crash(journal);
+
+        EditJournal.recover(crashed, notes);
+
+        assertNull(notes.added);
+        assertEquals(1, notes.updates);
+        assertEquals("hello world", notes.entries.get(42L).body);
+    }
+
+    @Test
+    public void existingNoteReplaysOnlyEditsAfterTheLastSave() throws Exception {
+        putNote(7, "one", 500);
+        EditJournal journal = new EditJournal(journals, executor, 7, 5, 500);
+        journal.record(EditJournal.FIELD_BODY, 3, 0, " two");
+        int first = journal.startSegment("", "one two");
+        putNote(7, "one two", 600);
+        journal.saved(first, 7, 600);
+        journal.record(EditJournal.FIELD_BODY, 7, 0, " three");
+        int second = journal.startSegment("", "one two three");
+        putNote(7, "one two three", 700);
+        journal.saved(second, 7, 700);
+        journal.record(EditJournal.FIELD_BODY, 13, 0, " four");
+        crash(journal);
+
+        EditJournal.recover(crashed, notes);
+
+        assertNull(notes.added);
+        assertEquals("one two three four", notes.entries.get(7L).body);
+    }
+
+    @Test
+    public void unjournaledSaveReplaysTheEditsAfterIt() throws Exception {
+        putNote(7, "one", 500);
+        EditJournal journal = new EditJournal(journals, executor, 7, 5, 500);
+        journal.record(EditJournal.FIELD_BODY, 3, 0, " two");
+        journal.startSegment("", "one two");
+        putNote(7, "one two", 600); // the save reached the database, the process died before saved()
+        journal.record(EditJournal.FIELD_BODY, 7, 0, " three");
+        crash(journal);
+
+        EditJournal.recover(crashed, notes);
+
+        assertEquals(1, notes.updates);
+        assertEquals("one two three", notes.entries.get(7L).body);
+    }
+
+    @Test
+    public void savedAgainAfterCrashIsLeftAsItIs() throws Exception {
+        putNote(7, "one", 500);
+        EditJournal journal = new EditJournal(journals, executor, 7, 5, 500);
+        journal.record(EditJournal.FIELD_BODY, 3, 0, " two");
+        journal.startSegment("", "one two");
+        putNote(7, "one two", 600);
+        journal.record(EditJournal.FIELD_BODY, 7, 0, " three");
+        crash(journal);
+        putNote(7, "one two three", 700); // the restored editor saved its text before recovery ran
+
+        EditJournal.recover(crashed, notes);
+
+        assertEquals(0, notes.updates);
+        assertEquals("one two three", notes.entries.get(7L).body);
+    }
+
+    @Test
+    public void unsavedNewNoteIsAdded() throws Exception {
+        EditJournal journal = new EditJournal(journals, executor, -1, 5, 0);
+        journal.record(EditJournal.FIELD_TITLE, 0, 0, "Title");
+        journal.record(EditJournal.FIELD_BODY, 0, 0, "text");
+        crash(journal);
+
+        EditJournal.recover(crashed, notes);
+
+        assertEquals("Title", notes.added.title);
+        assertEquals("text", notes.added.body);
+        assertEquals(Long.valueOf(5), notes.added.categoryId);
+    }
+}